@@ -0,0 +1,52 @@
+/**
+ * A kernel to calculate the dot product of two dense genome vectors using 
+ * the SIMD instructions of the jdk.incubator.vector module (JDK 16 or later).
+ * 
+ * This class is kept in its own source folder because the main sources 
+ * target Java 11. To use it, compile it against the main classes, e.g.
+ *   javac --add-modules jdk.incubator.vector -cp bin -d bin src-vector/alg/cb/similarity/*.java
+ * and run with --add-modules jdk.incubator.vector. GenomeKernel.load picks 
+ * it up automatically, and falls back to ScalarGenomeKernel otherwise. See 
+ * GenomeKernel for the tolerance with respect to the scalar kernel.
+ */
+
+package alg.cb.similarity;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorApiGenomeKernel implements GenomeKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED; // the widest vector shape supported by the CPU
+
+	/**
+	 * @param v1 - the first vector
+	 * @param v2 - the second vector (same length as v1)
+	 * @return the dot product of the vectors
+	 */
+	@Override
+	public double dot(double[] v1, double[] v2) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int upper = SPECIES.loopBound(v1.length);
+		int i = 0;
+		for (; i < upper; i += SPECIES.length()) {
+			DoubleVector a = DoubleVector.fromArray(SPECIES, v1, i);
+			DoubleVector b = DoubleVector.fromArray(SPECIES, v2, i);
+			sum = a.fma(b, sum);
+		}
+		double product = sum.reduceLanes(VectorOperators.ADD);
+
+		// Add the remaining elements
+		for (; i < v1.length; i++)
+			product += v1[i] * v2[i];
+		return product;
+	}
+
+	/**
+	 * @return the name of the kernel
+	 */
+	@Override
+	public String getName() {
+		return "vector-api";
+	}
+}
@@ -0,0 +1,205 @@
+/**
+ * A class to check that SimilarityMatrixBuilder produces the same matrix
+ * as the sequential build (the nested loop over all pairs of movies),
+ * whatever the parallelism level and with or without a maximum number of
+ * neighbours. The checks run on a synthetic casebase, so that every value
+ * can be compared exactly.
+ *
+ * Metrics for which the builder uses a dedicated engine instead of the
+ * metric (see SimilarityMatrixBuilder.build) are checked in the same way,
+ * since the engines must give the same result as the per-pair evaluation.
+ */
+
+package alg.cb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.ConfidenceSimilarity;
+import alg.cb.similarity.GenomeCosineSimilarity;
+import alg.cb.similarity.GenreJaccardSimilarity;
+import alg.cb.similarity.GenreOverlapSimilarity;
+import alg.cb.similarity.PopularitySimilarity;
+import alg.cb.similarity.RatingsCosineSimilarity;
+import alg.cb.similarity.SentimentSimilarity;
+import alg.cb.similarity.SimilarityMatrixBuilder;
+import alg.cb.similarity.SimilarityMetric;
+import alg.cb.util.CsrMatrix;
+
+public class TestSimilarityMatrixBuilder {
+	private static final int[] PARALLELISM = {1, 3, 8}; // the parallelism levels to check
+	private static final int[] MAX_NEIGHBOURS = {0, 10}; // the maximum numbers of neighbours to check (0 keeps all)
+
+	public static void main(String[] args) {
+		// Create a casebase whose size is not a multiple of any block or tile size
+		Casebase cb = createCasebase(150, 300, 60, 42);
+		boolean ok = true;
+
+		// Check metrics which are evaluated pair by pair, both symmetric and not
+		SimilarityMetric[] metrics = {
+				new GenreJaccardSimilarity(),
+				new GenreOverlapSimilarity(),
+				new PopularitySimilarity(),
+				new SentimentSimilarity(new GenreJaccardSimilarity(), 0.5, 5)};
+		for (SimilarityMetric metric: metrics)
+			ok &= check(cb, metric);
+
+		// Check the genome cosine, which is calculated as a blocked matrix product
+		ok &= check(cb, new GenomeCosineSimilarity());
+
+		// Check the rating-based metrics, which are calculated from the user => movie postings
+		ok &= check(cb, new RatingsCosineSimilarity());
+		ok &= check(cb, new ConfidenceSimilarity(4));
+		ok &= check(cb, new ConfidenceSimilarity(3.5));
+
+		System.out.println(ok ? "\nAll checks passed" : "\nSome checks FAILED");
+		if (!ok)
+			System.exit(1);
+	}
+
+	// Compares the matrices built at each parallelism level and maximum number of neighbours
+	// with the matrix built at parallelism 1 and with the sequential build
+	public static boolean check(Casebase cb, SimilarityMetric metric) {
+		boolean ok = true;
+		for (int k: MAX_NEIGHBOURS) {
+			String label = metric.getClass().getSimpleName() + " (K = " + k + ")";
+			Expected expected = new Expected(cb.getMovieArray(), metric, k);
+
+			CsrMatrix sequential = null;
+			for (int p: PARALLELISM) {
+				SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(metric);
+				builder.setParallelism(p);
+				builder.setMaxNeighbours(k);
+				CsrMatrix matrix = builder.build(cb);
+
+				String error = expected.compare(matrix);
+				if (error == null && sequential != null)
+					error = compare(sequential, matrix);
+				if (p == 1)
+					sequential = matrix;
+
+				System.out.println(label + ", parallelism " + p + ": " + ((error == null) ? "ok" : "FAILED - " + error));
+				ok &= (error == null);
+			}
+		}
+		return ok;
+	}
+
+	// Returns a description of the first difference between two matrices, or null if they are identical
+	public static String compare(CsrMatrix expected, CsrMatrix actual) {
+		if (expected.getNumRows() != actual.getNumRows())
+			return "the number of rows differs from parallelism 1";
+		for (int row = 0; row < expected.getNumRows(); row++) {
+			if (expected.getRowSize(row) != actual.getRowSize(row))
+				return "row " + row + " has a different size from parallelism 1";
+			for (int i = 0; i < expected.getRowSize(row); i++) {
+				int e = expected.getRowStart(row) + i;
+				int a = actual.getRowStart(row) + i;
+				if (expected.getColAt(e) != actual.getColAt(a) || expected.getValueAt(e) != actual.getValueAt(a))
+					return "row " + row + " differs from parallelism 1 at position " + i;
+			}
+		}
+		return null;
+	}
+
+	// Creates a casebase of random movies; some movies have no genome scores
+	// or no ratings, one has all-zero genome scores, and ratings and genres
+	// are drawn from small sets so that many similarities are tied
+	public static Casebase createCasebase(int numMovies, int numTags, int numUsers, long seed) {
+		String[] genreNames = {"Action", "Comedy", "Drama", "Horror", "Romance", "Thriller"};
+		Random random = new Random(seed);
+		Casebase cb = new Casebase();
+
+		for (int i = 0; i < numMovies; i++) {
+			int id = 10 * (i + 1) + random.nextInt(10);
+
+			Set<String> genres = new HashSet<>();
+			for (String genre: genreNames)
+				if (random.nextInt(3) == 0)
+					genres.add(genre);
+
+			Map<Integer,Double> genomeScores = null; // every tenth movie has no genome scores
+			if (i % 10 != 1) {
+				genomeScores = new HashMap<>();
+				for (int tag = 1; tag <= numTags; tag++)
+					if (random.nextInt(4) > 0)
+						genomeScores.put(tag, (i == 0) ? 0.0 : Math.round(random.nextDouble() * 100) / 100.0);
+			}
+
+			Map<Integer,Double> ratings = null; // every 25th movie has no ratings
+			if (i % 25 != 3) {
+				ratings = new HashMap<>();
+				for (int user = 1; user <= numUsers; user++)
+					if (random.nextInt(3) == 0)
+						ratings.put(user, (1 + random.nextInt(9)) / 2.0);
+			}
+
+			cb.addMovie(id, new Movie(id, "Movie " + id, 2000 + random.nextInt(20), genres, genomeScores, ratings));
+		}
+
+		cb.buildIndexes();
+		return cb;
+	}
+
+	// The matrix given by the sequential build: each pair (i, j) with i < j is evaluated
+	// once if the metric is symmetric and in both directions otherwise, only similarities
+	// greater than zero are kept and, if a maximum number of neighbours K is set, only
+	// the K best of each row (descending similarity, ties by ascending ordinal)
+	private static class Expected {
+		private Integer[][] cols; // the column ids of each row, in rank order
+		private double[][] values; // the similarities of each row, in rank order
+
+		private Expected(Movie[] movies, SimilarityMetric metric, int maxNeighbours) {
+			int n = movies.length;
+			double[][] sims = new double[n][n];
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++) {
+					sims[i][j] = metric.calculateSimilarity(movies[i], movies[j]);
+					sims[j][i] = metric.isSymmetric() ? sims[i][j] : metric.calculateSimilarity(movies[j], movies[i]);
+				}
+
+			cols = new Integer[n][];
+			values = new double[n][];
+			for (int i = 0; i < n; i++) {
+				double[] row = sims[i];
+				Integer[] ranked = new Integer[n];
+				int size = 0;
+				for (int j = 0; j < n; j++)
+					if (j != i && row[j] > 0)
+						ranked[size++] = j;
+				ranked = Arrays.copyOf(ranked, size);
+				Arrays.sort(ranked, (a, b) -> (row[a] != row[b]) ? Double.compare(row[b], row[a]) : Integer.compare(a, b));
+				if (maxNeighbours > 0 && ranked.length > maxNeighbours)
+					ranked = Arrays.copyOf(ranked, maxNeighbours);
+
+				cols[i] = ranked;
+				values[i] = new double[ranked.length];
+				for (int j = 0; j < ranked.length; j++)
+					values[i][j] = row[ranked[j]];
+			}
+		}
+
+		// Returns a description of the first difference from the matrix, or null if there is none
+		private String compare(CsrMatrix matrix) {
+			if (matrix.getNumRows() != cols.length)
+				return "expected " + cols.length + " rows but found " + matrix.getNumRows();
+			for (int row = 0; row < cols.length; row++) {
+				if (matrix.getRowSize(row) != cols[row].length)
+					return "expected " + cols[row].length + " elements in row " + row + " but found " + matrix.getRowSize(row);
+				for (int i = 0; i < cols[row].length; i++) {
+					int pos = matrix.getRowStart(row) + i;
+					if (matrix.getColAt(pos) != cols[row][i] || matrix.getValueAt(pos) != values[row][i])
+						return "expected (" + row + ", " + cols[row][i] + ") = " + values[row][i] +
+								" at position " + i + " but found (" + row + ", " + matrix.getColAt(pos) + ") = " + matrix.getValueAt(pos);
+				}
+			}
+			return null;
+		}
+	}
+}
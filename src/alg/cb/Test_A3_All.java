@@ -1,10 +1,10 @@
 package alg.cb;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.Set;
 
 import alg.cb.casebase.Casebase;
-import alg.cb.casebase.Movie;
 import alg.cb.reader.DatasetReader;
 import alg.cb.similarity.ConfidenceSimilarity;
 import alg.cb.similarity.GenomeCosineSimilarity;
@@ -13,9 +13,10 @@ import alg.cb.similarity.GenreOverlapSimilarity;
 import alg.cb.similarity.PopularitySimilarity;
 import alg.cb.similarity.RatingsCosineSimilarity;
 import alg.cb.similarity.SentimentSimilarity;
+import alg.cb.similarity.SimilarityMatrixBuilder;
 import alg.cb.similarity.SimilarityMetric;
 import alg.cb.util.Histogram;
-import alg.cb.util.Matrix;
+import alg.cb.util.ReadOnlyMatrix;
 import alg.cb.util.Stats;
 
 public class Test_A3_All {
@@ -41,7 +42,7 @@ public class Test_A3_All {
 		};
 
 		// Create an array of matrices to store the pairwise similarities for each similarity metric
-		Matrix[] similarities = new Matrix[metrics.length];
+		ReadOnlyMatrix[] similarities = new ReadOnlyMatrix[metrics.length];
 		for (int i = 0; i < metrics.length; i++) 
 			similarities[i] = calculateSimilarities(metrics[i], cb);
 
@@ -51,9 +52,9 @@ public class Test_A3_All {
 			// Add all pairwise similarities to the histogram (including pairwise similarities 
 			// equal to zero).
 			Histogram h = new Histogram(0, 1, 40);
-			Set<Integer> movieIds = cb.getMovieIds(); // Get all movie ids
-			for (int row: movieIds) // Iterate over the rows of the matrix
-				for (int col: movieIds) // Iterate over the columns of the matrix
+			Set<Integer> ordinals = getOrdinals(cb); // Get all movie ordinals
+			for (int row: ordinals) // Iterate over the rows of the matrix
+				for (int col: ordinals) // Iterate over the columns of the matrix
 					if (row != col) // Exclude the similarity between each movie and itself 
 						h.addValue(similarities[i].getValue(row, col));
 
@@ -65,10 +66,11 @@ public class Test_A3_All {
 
 		// Calculate the Pearson correlation between the pairwise similarities given 
 		// by each similarity metric
+		Set<Integer> ordinals = getOrdinals(cb);
 		double[][] correlations = new double[similarities.length][similarities.length];
 		for (int i = 0; i < correlations.length; i++) 
 			for (int j = 0; j < correlations.length; j++) 
-				correlations[i][j] = Stats.getCorrelation(similarities[i], similarities[j], cb.getMovieIds(), cb.getMovieIds(), true);
+				correlations[i][j] = Stats.getCorrelation(similarities[i], similarities[j], ordinals, ordinals, true);
 
 		// Display the correlations
 		for (int i = 0; i < correlations.length; i++) {
@@ -86,43 +88,18 @@ public class Test_A3_All {
 		displayHistogram(hist);
 	}
 
-	// Returns a matrix containing the pairwise similarities between all movies
-	public static Matrix calculateSimilarities(SimilarityMetric metric, Casebase cb) {
-		// Create a matrix to store the pairwise similarities between all movies
-		Matrix matrix = new Matrix();
-
-		// Get all movies
-		Object[] movies = cb.getMovies().values().toArray();
-
-		// Calculate the pairwise similarities between all movies
-		for (int i = 0; i < movies.length; i++)
-			for (int j = i + 1; j < movies.length; j++) {
-				Movie m1 = (Movie)movies[i];
-				Movie m2 = (Movie)movies[j];
-
-				// Similarities calculated using overlap coefficient, Jaccard index,  
-				// and cosine are symmetric - i.e. sim(m1, m2) = sim(m2, m1).
-				// Similarities calculated using confidence (product association 
-				// recommendation approach), popularity, and sentiment are not 
-				// symmetric - i.e. sim(m1, m2) != sim(m2, m1).
-				if (metric instanceof ConfidenceSimilarity ||
-						metric instanceof PopularitySimilarity ||
-						metric instanceof SentimentSimilarity) { // similarity is not symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if(sim > 0) matrix.addValue(m1.getId(), m2.getId(), sim);
-
-					sim = metric.calculateSimilarity(m2, m1);
-					if (sim > 0) matrix.addValue(m2.getId(), m1.getId(), sim);	
-				} else { // similarity is symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if (sim > 0) { // Add non-zero similarities to the matrix
-						matrix.addValue(m1.getId(), m2.getId(), sim);
-						matrix.addValue(m2.getId(), m1.getId(), sim);		
-					}					
-				}
-			}
+	// Returns a matrix containing the pairwise similarities between all movies, 
+	// keyed by movie ordinal
+	public static ReadOnlyMatrix calculateSimilarities(SimilarityMetric metric, Casebase cb) {
+		return new SimilarityMatrixBuilder(metric).build(cb);
+	}
 
-		return matrix;
+	// Returns the ordinals of all movies (the row and column ids of the similarity matrices)
+	public static Set<Integer> getOrdinals(Casebase cb) {
+		Set<Integer> ordinals = new HashSet<>();
+		for (int i = 0; i < cb.getNumberMovies(); i++)
+			ordinals.add(i);
+		return ordinals;
 	}
 
 	// Displays a histogram
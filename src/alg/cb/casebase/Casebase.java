@@ -1,12 +1,22 @@
 /**
  * This class stores movie objects.
+ * 
+ * Each movie is assigned a dense ordinal (0..n-1, in the order in which 
+ * movies are added) so that per-movie data can be held in plain arrays. 
+ * Users who have rated movies are likewise assigned dense ordinals by 
+ * buildIndexes (user ids in ascending order).
  */
 
 package alg.cb.casebase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import alg.cb.casebase.Movie;
 
@@ -14,21 +24,112 @@ public class Casebase {
 	// A hashmap to store movies; each key is a movie id 
 	// and each value is a Movie object
 	private Map<Integer,Movie> cb; 
+	private List<Movie> movieList; // the movies, indexed by ordinal
+	private Movie[] movieArray; // a cached array copy of movieList (null if out of date)
+	private int[] userIds; // the user id corresponding to each user ordinal, in ascending order
+	private int[] genomeTagIds; // the genome tag id corresponding to each tag ordinal
+	private List<String> genres; // the genre dictionary; the index of each genre is its ordinal
 	
 	/**
 	 * constructor - creates a new Casebase object
 	 */
 	public Casebase() {
 		cb = new HashMap<>();
+		movieList = new ArrayList<>();
+		userIds = new int[0];
 	}
 	
 	/**
-	 * adds a movie to the casebase
+	 * adds a movie to the casebase and assigns it the next free ordinal; a 
+	 * movie which replaces an existing movie with the same id takes over 
+	 * that movie's ordinal. If the genome vectors or genre bitmasks have 
+	 * been built, the movie's vector and bitmask are set as well, provided 
+	 * all its tags and genres are already known (otherwise the metrics fall 
+	 * back to the movie's maps and sets until buildIndexes is called again).
 	 * @param id - the id of the movie
 	 * @param m - the Movie object
 	 */
 	public void addMovie(int id, Movie m) {
-		cb.put(id, m);
+		indexMovie(m);
+
+		Movie old = cb.put(id, m);
+		if (old != null) {
+			m.setOrdinal(old.getOrdinal());
+			movieList.set(old.getOrdinal(), m);
+		} else {
+			m.setOrdinal(movieList.size());
+			movieList.add(m);
+		}
+		movieArray = null;
+	}
+	
+	/**
+	 * sets the dense genome vector and genre bitmask of a movie from the 
+	 * current tag and genre dictionaries, if they have been built and 
+	 * contain all of the movie's tags and genres
+	 * @param m - the Movie object
+	 */
+	private void indexMovie(Movie m) {
+		Map<Integer,Double> scores = m.getGenomeScores();
+		if (genomeTagIds != null && scores != null) {
+			double[] vector = new double[genomeTagIds.length];
+			boolean known = true;
+			for (Map.Entry<Integer,Double> e: scores.entrySet()) {
+				int tag = Arrays.binarySearch(genomeTagIds, e.getKey());
+				if (tag < 0) {
+					known = false;
+					break;
+				}
+				vector[tag] = e.getValue();
+			}
+			if (known)
+				m.setGenomeVector(vector);
+		}
+		
+		if (genres != null && genres.size() <= Long.SIZE) {
+			long mask = 0;
+			boolean known = true;
+			for (String genre: m.getGenres()) {
+				int ordinal = genres.indexOf(genre);
+				if (ordinal < 0) {
+					known = false;
+					break;
+				}
+				mask |= 1L << ordinal;
+			}
+			if (known)
+				m.setGenreMask(mask);
+		}
+	}
+	
+	/**
+	 * @param ordinal - the ordinal of the movie
+	 * @return the Movie object corresponding to the specified ordinal
+	 */
+	public Movie getMovieByOrdinal(int ordinal) {
+		return movieList.get(ordinal);
+	}
+	
+	/**
+	 * @param id - the id of the movie 
+	 * @return the ordinal of the movie or -1 if the movie is not in the casebase
+	 */
+	public int getOrdinal(int id) {
+		Movie m = cb.get(id);
+		return (m != null) ? m.getOrdinal() : -1;
+	}
+	
+	/**
+	 * @return all movies in the casebase, indexed by ordinal. The array is 
+	 * shared and must not be modified.
+	 */
+	public Movie[] getMovieArray() {
+		Movie[] movies = movieArray;
+		if (movies == null) {
+			movies = movieList.toArray(new Movie[movieList.size()]);
+			movieArray = movies;
+		}
+		return movies;
 	}
 	
 	/**
@@ -40,7 +141,8 @@ public class Casebase {
 	}
 	
 	/**
-	 * @return all movies in the casebase
+	 * @return all movies in the casebase. Movies must be added through 
+	 * addMovie (not through the returned map) so that they are assigned ordinals.
 	 */
 	public Map<Integer,Movie> getMovies() {
 		return cb;
@@ -59,4 +161,156 @@ public class Casebase {
 	public int getNumberMovies() {
 		return cb.size();
 	}
+	
+	/**
+	 * @return the number of times the most popular movie has been rated by users
+	 */
+	public int getMaxPopularity() {
+		int max = 0;
+		for (Movie m: cb.values())
+			max = Math.max(max, m.getNumRatings());
+		return max;
+	}
+	
+	/**
+	 * Builds the derived per-movie data used by the similarity metrics: the 
+	 * dense genome vectors and the genre bitmasks. Should be called once all 
+	 * movies have been added, and again if movies are added later.
+	 */
+	public void buildIndexes() {
+		buildUserOrdinals();
+		buildGenomeVectors();
+		buildGenreMasks();
+	}
+	
+	/**
+	 * @return the number of distinct users who have rated movies in the casebase 
+	 * (as of the last call to buildUserOrdinals)
+	 */
+	public int getNumberUsers() {
+		return userIds.length;
+	}
+	
+	/**
+	 * @param ordinal - the ordinal of the user
+	 * @return the id of the user with the specified ordinal
+	 */
+	public int getUserId(int ordinal) {
+		return userIds[ordinal];
+	}
+	
+	/**
+	 * @param userId - the id of the user
+	 * @return the ordinal of the user or -1 if the user has not rated any movie
+	 */
+	public int getUserOrdinal(int userId) {
+		int ordinal = Arrays.binarySearch(userIds, userId);
+		return (ordinal >= 0) ? ordinal : -1;
+	}
+	
+	/**
+	 * Assigns an ordinal to each distinct user who has rated a movie in the 
+	 * casebase. Ordinals follow ascending user id, so the sorted user ids of 
+	 * each movie (Movie.getRatingUserIds) map to ascending ordinals.
+	 */
+	public void buildUserOrdinals() {
+		int total = 0;
+		for (Movie m: movieList)
+			total += m.getNumRatings();
+		
+		int[] ids = new int[total];
+		int n = 0;
+		for (Movie m: movieList) {
+			int[] movieUsers = m.getRatingUserIds();
+			System.arraycopy(movieUsers, 0, ids, n, movieUsers.length);
+			n += movieUsers.length;
+		}
+		Arrays.sort(ids);
+		
+		// Remove duplicates
+		int m = 0;
+		for (int i = 0; i < n; i++)
+			if (m == 0 || ids[i] != ids[m - 1])
+				ids[m++] = ids[i];
+		
+		userIds = Arrays.copyOf(ids, m);
+	}
+	
+	/**
+	 * @return the genre dictionary (the index of each genre is its ordinal), 
+	 * or null if the genre bitmasks have not been built
+	 */
+	public List<String> getGenres() {
+		return genres;
+	}
+	
+	/**
+	 * Interns the genres of all movies into a dictionary (genres in ascending
+	 * order) and sets a bitmask on each movie in which bit i is set if the 
+	 * movie has the genre with ordinal i. If there are more than 64 distinct 
+	 * genres, no bitmasks are set and the genre metrics use the genre sets.
+	 */
+	public void buildGenreMasks() {
+		Set<String> distinct = new TreeSet<>();
+		for (Movie m: cb.values())
+			distinct.addAll(m.getGenres());
+		
+		genres = new ArrayList<>(distinct);
+		if (genres.size() > Long.SIZE)
+			return;
+		
+		Map<String,Integer> ordinals = new HashMap<>();
+		for (int i = 0; i < genres.size(); i++)
+			ordinals.put(genres.get(i), i);
+		
+		for (Movie m: cb.values()) {
+			long mask = 0;
+			for (String genre: m.getGenres())
+				mask |= 1L << ordinals.get(genre);
+			m.setGenreMask(mask);
+		}
+	}
+	
+	/**
+	 * @return the genome tag id corresponding to each position of the dense 
+	 * genome vectors, or null if the vectors have not been built
+	 */
+	public int[] getGenomeTagIds() {
+		return genomeTagIds;
+	}
+	
+	/**
+	 * Builds a dense genome vector for each movie which has genome scores. 
+	 * Each distinct tag id found in the casebase is assigned an ordinal (tag 
+	 * ids in ascending order), and position i of every vector holds the score 
+	 * for the tag with ordinal i (zero if the movie has no score for that tag).
+	 * Should be called again if movies are added after the vectors are built.
+	 */
+	public void buildGenomeVectors() {
+		// Assign an ordinal to each distinct tag id
+		Set<Integer> tags = new HashSet<>();
+		for (Movie m: cb.values())
+			if (m.getGenomeScores() != null)
+				tags.addAll(m.getGenomeScores().keySet());
+		
+		int[] tagIds = new int[tags.size()];
+		int n = 0;
+		for (int tagId: tags)
+			tagIds[n++] = tagId;
+		Arrays.sort(tagIds);
+		
+		// Build the vectors
+		for (Movie m: cb.values()) {
+			Map<Integer,Double> scores = m.getGenomeScores();
+			if (scores == null)
+				continue;
+			
+			double[] vector = new double[tagIds.length];
+			for (Map.Entry<Integer,Double> e: scores.entrySet())
+				vector[Arrays.binarySearch(tagIds, e.getKey())] = e.getValue();
+			m.setGenomeVector(vector);
+		}
+		
+		genomeTagIds = tagIds;
+	}
 }
@@ -4,16 +4,29 @@
 
 package alg.cb.casebase;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Movie {
 	private int id; // the movie id
+	private int ordinal; // the dense index assigned by the casebase the movie was added to (-1 if none)
 	private String title; // the movie title
 	private int year; // the movie year of release
 	private Set<String> genres; // the movie genres
 	private Map<Integer,Double> genomeScores; // the movie genome scores
 	private Map<Integer,Double> ratings; // the movie ratings
+	private long genreMask; // bit i is set if the movie has the genre with ordinal i (see Casebase.buildGenreMasks)
+	private boolean hasGenreMask; // true if genreMask has been set
+	private double[] genomeVector; // the movie genome scores indexed by tag ordinal (see Casebase.buildGenomeVectors)
+	private double genomeNorm; // the L2 norm of genomeVector
+	private int[] ratingUserIds; // the ids of the users who rated the movie, in ascending order
+	private float[] ratingValues; // the rating given by each user in ratingUserIds
+	private float[] sortedRatingValues; // the ratings in ascending order (used to count liked ratings)
+	private double ratingsNorm; // the L2 norm of the ratings
+	private double meanRating; // the mean of the ratings
+	private Map<Double,LikedUsers> likedUsers = new ConcurrentHashMap<>(); // the users who liked the movie, for each threshold requested
 		
 	/**
 	 * constructor - creates a new Movie object
@@ -31,6 +44,8 @@ public class Movie {
 		this.genres = genres;
 		this.genomeScores = genomeScores;
 		this.ratings = ratings;
+		this.ordinal = -1;
+		indexRatings();
 	}
 	
 	/**
@@ -40,6 +55,22 @@ public class Movie {
 		return id;
 	}
 	
+	/**
+	 * @return the dense index (0..n-1) assigned to the movie by the casebase 
+	 * it was added to, or -1 if it has not been added to a casebase
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+	
+	/**
+	 * sets the dense index of the movie
+	 * @param ordinal - the dense index
+	 */
+	void setOrdinal(int ordinal) {
+		this.ordinal = ordinal;
+	}
+	
 	/**
 	 * @return the movie title
 	 */
@@ -61,6 +92,30 @@ public class Movie {
 		return genres;
 	}
 	
+	/**
+	 * @return true if the genre bitmask has been set (see Casebase.buildGenreMasks)
+	 */
+	public boolean hasGenreMask() {
+		return hasGenreMask;
+	}
+	
+	/**
+	 * @return the movie genres as a bitmask; bit i is set if the movie has the 
+	 * genre with ordinal i in the casebase genre dictionary
+	 */
+	public long getGenreMask() {
+		return genreMask;
+	}
+	
+	/**
+	 * sets the genre bitmask
+	 * @param genreMask - the movie genres as a bitmask
+	 */
+	void setGenreMask(long genreMask) {
+		this.genreMask = genreMask;
+		this.hasGenreMask = true;
+	}
+	
 	/**
 	 * @return the movie genome scores
 	 */
@@ -68,6 +123,35 @@ public class Movie {
 		return genomeScores;
 	}
 	
+	/**
+	 * @return the movie genome scores as a dense vector indexed by tag ordinal, 
+	 * or null if the movie has no genome scores or the vectors have not been built
+	 * (see Casebase.buildGenomeVectors)
+	 */
+	public double[] getGenomeVector() {
+		return genomeVector;
+	}
+	
+	/**
+	 * @return the L2 norm of the dense genome vector
+	 */
+	public double getGenomeNorm() {
+		return genomeNorm;
+	}
+	
+	/**
+	 * sets the dense genome vector and caches its norm
+	 * @param genomeVector - the movie genome scores indexed by tag ordinal
+	 */
+	void setGenomeVector(double[] genomeVector) {
+		double sum = 0;
+		for (int i = 0; i < genomeVector.length; i++)
+			sum += genomeVector[i] * genomeVector[i];
+		
+		this.genomeVector = genomeVector;
+		this.genomeNorm = Math.sqrt(sum);
+	}
+	
 	/**
 	 * @return the movie ratings
 	 */
@@ -75,20 +159,122 @@ public class Movie {
 		return ratings;
 	}
 	
+	/**
+	 * @return the ids of the users who rated the movie, in ascending order
+	 */
+	public int[] getRatingUserIds() {
+		return ratingUserIds;
+	}
+	
+	/**
+	 * @return the ratings of the movie, in the same order as getRatingUserIds.
+	 * Ratings are stored as floats, which is exact for the usual star scales.
+	 */
+	public float[] getRatingValues() {
+		return ratingValues;
+	}
+	
+	/**
+	 * @return the L2 norm of the movie ratings
+	 */
+	public double getRatingsNorm() {
+		return ratingsNorm;
+	}
+	
+	/**
+	 * @param threshold - the rating threshold for liked movies
+	 * @return the number of users who gave the movie a rating >= threshold
+	 */
+	public int getLikedCount(double threshold) {
+		// Find the first rating >= threshold in the sorted ratings
+		int lo = 0, hi = sortedRatingValues.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sortedRatingValues[mid] < threshold)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return sortedRatingValues.length - lo;
+	}
+	
+	/**
+	 * @param threshold - the rating threshold for liked movies
+	 * @return the users who gave the movie a rating >= threshold, together 
+	 * with their ratings. The result is cached for each threshold requested 
+	 * and its arrays must not be modified.
+	 */
+	public LikedUsers getLikedUsers(double threshold) {
+		return likedUsers.computeIfAbsent(threshold, t -> {
+			int[] ids = new int[getLikedCount(t)];
+			float[] values = new float[ids.length];
+			int n = 0;
+			for (int i = 0; i < ratingUserIds.length; i++)
+				if (ratingValues[i] >= t) {
+					ids[n] = ratingUserIds[i];
+					values[n++] = ratingValues[i];
+				}
+			return new LikedUsers(ids, values);
+		});
+	}
+	
+	/**
+	 * @return the number of ratings the movie received (i.e. its popularity)
+	 */
+	public int getNumRatings() {
+		return ratingUserIds.length;
+	}
+	
 	/**
 	 * @return the mean movie rating
 	 */
 	public double getMeanRating() {
+		return meanRating;
+	}
+	
+	/**
+	 * Recomputes the sorted rating arrays and the cached rating statistics 
+	 * (count, mean, norm, liked counts and liked users). Must be called 
+	 * after the map returned by getRatings has been modified.
+	 */
+	public void refreshRatings() {
+		indexRatings();
+	}
+	
+	
+	/**
+	 * Builds the sorted rating arrays and the cached rating statistics from the ratings map
+	 */
+	private void indexRatings() {
+		int n = (ratings != null) ? ratings.size() : 0;
+		int[] userIds = new int[n];
+		int i = 0;
+		if (ratings != null)
+			for (int userId: ratings.keySet())
+				userIds[i++] = userId;
+		Arrays.sort(userIds);
+		
+		float[] values = new float[n];
 		double sum = 0;
+		double sumSq = 0;
+		for (i = 0; i < n; i++) {
+			double r = ratings.get(userIds[i]);
+			values[i] = (float)r;
+			sum += r;
+			sumSq += r * r;
+		}
 		
-		Set<Integer> userIds = ratings.keySet();
-		for (int id: userIds)
-			sum += ratings.get(id);
+		float[] sortedValues = values.clone();
+		Arrays.sort(sortedValues);
 		
-		return (userIds.size() > 0) ? sum / userIds.size() : 0;
+		ratingUserIds = userIds;
+		ratingValues = values;
+		sortedRatingValues = sortedValues;
+		ratingsNorm = Math.sqrt(sumSq);
+		meanRating = (n > 0) ? sum / n : 0;
+		likedUsers.clear();
 	}
 	
-	
 	/**
 	 * @return the hash code value for this Movie object
 	 */
@@ -124,4 +310,32 @@ public class Movie {
 	public String toString() {
 		return id + ", " + title + ", " + year + ", " + genres.toString();
 	}
+	
+	/**
+	 * The users who gave the movie a rating >= threshold (see getLikedUsers)
+	 */
+	public static class LikedUsers {
+		private final int[] ids; // the ids of the users, in ascending order
+		private final float[] values; // the rating given by each user in ids
+		
+		private LikedUsers(int[] ids, float[] values) {
+			this.ids = ids;
+			this.values = values;
+		}
+		
+		/**
+		 * @return the ids of the users, in ascending order (must not be modified)
+		 */
+		public int[] getIds() {
+			return ids;
+		}
+		
+		/**
+		 * @return the rating given by each user, in the same order as getIds 
+		 * (must not be modified)
+		 */
+		public float[] getValues() {
+			return values;
+		}
+	}
 }
@@ -39,14 +39,7 @@ public class Evaluator {
 		}
 
 		// Get the maximum movie popularity 
-		maxPopularity = 0;
-
-		for (int movieId: cb.getMovieIds()) {
-			Movie m = cb.getMovie(movieId);
-			int popularity = m.getRatings().size();
-			if (popularity > maxPopularity)
-				maxPopularity = popularity;
-		}
+		maxPopularity = cb.getMaxPopularity();
 	}
 
 	/**
@@ -177,7 +170,7 @@ public class Evaluator {
 			List<Movie> recs = recommendations.get(movieId);
 			for (int i = 0; i < recs.size() && i < k; i++) {
 				Movie movie = recs.get(i);
-				popularity += movie.getRatings().size() * 1.0 / maxPopularity;
+				popularity += movie.getNumRatings() * 1.0 / maxPopularity;
 				count++;
 			}
 
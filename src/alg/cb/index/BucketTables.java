@@ -0,0 +1,145 @@
+/**
+ * A set of hash tables used by the locality-sensitive hashing indexes. Each 
+ * movie is given a 32-bit bucket signature in each table; two movies which 
+ * share a bucket in at least one table are candidate neighbours.
+ * 
+ * Each table is stored as a sorted array of keys (signature << 32 | ordinal), 
+ * so that the movies in a bucket form a contiguous range.
+ */
+
+package alg.cb.index;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+class BucketTables {
+	private static final int BLOCKS_PER_THREAD = 8; // the number of movie blocks per thread (for load balancing)
+
+	private long[][] keys; // for each table, the key of each movie
+	private boolean[] hashed; // true for each movie which has been given signatures
+	private long[][] buckets; // for each table, the keys of the hashed movies in ascending order
+
+	/**
+	 * constructor - creates new, empty tables
+	 * @param numTables - the number of tables
+	 * @param numMovies - the number of movies (ordinals 0..numMovies-1)
+	 */
+	BucketTables(int numTables, int numMovies) {
+		keys = new long[numTables][numMovies];
+		hashed = new boolean[numMovies];
+	}
+
+	/**
+	 * sets the signature of a movie in a table; may be called for different 
+	 * movies from several threads
+	 * @param table - the table
+	 * @param ordinal - the ordinal of the movie
+	 * @param signature - the signature
+	 */
+	void put(int table, int ordinal, int signature) {
+		keys[table][ordinal] = ((signature & 0xFFFFFFFFL) << 32) | ordinal;
+		hashed[ordinal] = true;
+	}
+
+	/**
+	 * sorts the tables; must be called once all signatures have been set
+	 */
+	void sort() {
+		int numHashed = 0;
+		for (boolean h: hashed)
+			if (h) numHashed++;
+
+		buckets = new long[keys.length][];
+		for (int t = 0; t < keys.length; t++) {
+			long[] table = new long[numHashed];
+			int n = 0;
+			for (int i = 0; i < hashed.length; i++)
+				if (hashed[i])
+					table[n++] = keys[t][i];
+			Arrays.sort(table);
+			buckets[t] = table;
+		}
+	}
+
+	/**
+	 * @return the ordinals of the hashed movies, in ascending order
+	 */
+	int[] getHashed() {
+		int n = 0;
+		int[] ordinals = new int[hashed.length];
+		for (int i = 0; i < hashed.length; i++)
+			if (hashed[i])
+				ordinals[n++] = i;
+		return Arrays.copyOf(ordinals, n);
+	}
+
+	/**
+	 * collects the candidates of a movie
+	 * @param ordinal - the ordinal of the movie
+	 * @param stamp - a scratch array (one element per movie) used to remove duplicates
+	 * @param buffer - a scratch array (one element per movie) used to hold the candidates
+	 * @return the ordinals of the movies which share a bucket with the movie in 
+	 * at least one table (excluding the movie itself), in no particular order
+	 */
+	int[] getCandidates(int ordinal, int[] stamp, int[] buffer) {
+		if (!hashed[ordinal])
+			return new int[0];
+
+		int n = 0;
+		stamp[ordinal] = ordinal + 1;
+		for (int t = 0; t < buckets.length; t++) {
+			long[] table = buckets[t];
+			int pos = Arrays.binarySearch(table, keys[t][ordinal]);
+			long signature = table[pos] >>> 32;
+
+			// Visit the bucket on either side of the movie's own entry
+			for (int p = pos - 1; p >= 0 && (table[p] >>> 32) == signature; p--)
+				n = addCandidate((int)table[p], ordinal, stamp, buffer, n);
+			for (int p = pos + 1; p < table.length && (table[p] >>> 32) == signature; p++)
+				n = addCandidate((int)table[p], ordinal, stamp, buffer, n);
+		}
+		return Arrays.copyOf(buffer, n);
+	}
+
+	/**
+	 * adds a candidate unless it has already been added for the current movie
+	 * @return the new number of candidates
+	 */
+	private static int addCandidate(int candidate, int ordinal, int[] stamp, int[] buffer, int n) {
+		if (stamp[candidate] != ordinal + 1) {
+			stamp[candidate] = ordinal + 1;
+			buffer[n++] = candidate;
+		}
+		return n;
+	}
+
+	/**
+	 * runs an action over the range [0, n) split into blocks
+	 * @param n - the size of the range
+	 * @param parallelism - the number of threads to use; 1 runs the action on the calling thread
+	 * @param action - the action
+	 */
+	static void forEachBlock(int n, int parallelism, BlockAction action) {
+		if (parallelism == 1) {
+			action.run(0, n);
+			return;
+		}
+
+		int numBlocks = Math.max(1, Math.min(parallelism * BLOCKS_PER_THREAD, n));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> IntStream.range(0, numBlocks).parallel().forEach(b -> 
+					action.run((int)((long)n * b / numBlocks), (int)((long)n * (b + 1) / numBlocks)))).join();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * An action over a block [from, to) of movie ordinals
+	 */
+	interface BlockAction {
+		void run(int from, int to);
+	}
+}
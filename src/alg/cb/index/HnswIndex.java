@@ -0,0 +1,407 @@
+/**
+ * A hierarchical navigable small world (HNSW) graph index for online 
+ * nearest-neighbour queries over movies (Malkov and Yashunin, 2018).
+ * 
+ * Each movie is a node which is assigned a random top level (geometrically 
+ * distributed); on each level from its top level down to level 0 it is 
+ * linked to up to m similar nodes (2m on level 0), chosen by the neighbour 
+ * selection heuristic so that links point in diverse directions. A query 
+ * descends greedily from the single entry point on the top level, and 
+ * then runs a beam search of width ef on level 0. Both insertion and 
+ * queries visit O(log n) nodes in practice, so new movies can be added at 
+ * any time without rebuilding the index.
+ * 
+ * Similarity is given by a SimilarityMetric, which should be a similarity 
+ * over dense vectors (e.g. GenomeCosineSimilarity). Larger values of ef 
+ * (see setEfSearch) and efConstruction give more accurate results at the 
+ * cost of more similarity evaluations. Queries from several threads run 
+ * concurrently (each thread keeps its own record of visited nodes); an 
+ * insertion waits for running queries and blocks new ones until it is done.
+ */
+
+package alg.cb.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.SimilarityMetric;
+import alg.cb.util.ScoredObjectDsc;
+
+public class HnswIndex {
+	private SimilarityMetric metric; // the similarity metric
+	private int m; // the maximum number of links per node on levels above 0
+	private int maxLinks0; // the maximum number of links per node on level 0
+	private int efConstruction; // the beam width used when inserting nodes
+	private volatile int efSearch; // the beam width used by queries
+	private double levelMultiplier; // the normalisation factor of the level distribution (1 / ln m)
+	private Random random; // used to draw the level of each node
+
+	private List<Movie> nodes; // the movie of each node
+	private List<int[][]> links; // the links of each node on each of its levels
+	private Map<Integer,Integer> nodeIds; // the node of each movie, keyed by movie id
+	private int entryPoint; // the node on the top level (-1 if the index is empty)
+	private int maxLevel; // the top level
+	private ReadWriteLock lock; // held for reading by queries and for writing by insertions
+	private ThreadLocal<VisitedNodes> visited; // the nodes visited by the current search of each thread
+
+	/**
+	 * constructor - creates a new, empty index
+	 * @param metric - the similarity metric
+	 * @param m - the maximum number of links per node (2m on level 0); typically 8 to 48
+	 * @param efConstruction - the beam width used when inserting nodes (at least m)
+	 * @param seed - the seed used to draw the level of each node
+	 */
+	public HnswIndex(SimilarityMetric metric, int m, int efConstruction, long seed) {
+		if (m < 2)
+			throw new IllegalArgumentException("m must be at least 2");
+
+		this.metric = metric;
+		this.m = m;
+		this.maxLinks0 = 2 * m;
+		this.efConstruction = Math.max(efConstruction, m);
+		this.efSearch = 50;
+		this.levelMultiplier = 1 / Math.log(m);
+		this.random = new Random(seed);
+		this.nodes = new ArrayList<>();
+		this.links = new ArrayList<>();
+		this.nodeIds = new HashMap<>();
+		this.entryPoint = -1;
+		this.maxLevel = -1;
+		this.lock = new ReentrantReadWriteLock();
+		this.visited = ThreadLocal.withInitial(VisitedNodes::new);
+	}
+
+	/**
+	 * @return the similarity metric
+	 */
+	public SimilarityMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 * @return the beam width used by queries
+	 */
+	public int getEfSearch() {
+		return efSearch;
+	}
+
+	/**
+	 * sets the beam width used by queries (the number of neighbours returned 
+	 * is at most max(ef, k))
+	 * @param efSearch - the beam width
+	 */
+	public void setEfSearch(int efSearch) {
+		this.efSearch = Math.max(efSearch, 1);
+	}
+
+	/**
+	 * @return the number of movies in the index
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return nodes.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * adds all movies in the casebase to the index
+	 * @param cb - the casebase
+	 */
+	public void addAll(Casebase cb) {
+		for (Movie movie: cb.getMovieArray())
+			add(movie);
+	}
+
+	/**
+	 * adds a movie to the index
+	 * @param movie - the movie
+	 * @return true if the movie was added, false if a movie with the same id is already in the index
+	 */
+	public boolean add(Movie movie) {
+		lock.writeLock().lock();
+		try {
+			return insert(movie);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * adds a movie to the index (the write lock must be held)
+	 * @param movie - the movie
+	 * @return true if the movie was added, false if a movie with the same id is already in the index
+	 */
+	private boolean insert(Movie movie) {
+		if (nodeIds.containsKey(movie.getId()))
+			return false;
+
+		int node = nodes.size();
+		int level = (int)(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+		nodes.add(movie);
+		links.add(new int[level + 1][0]);
+		nodeIds.put(movie.getId(), node);
+
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return true;
+		}
+
+		// Descend greedily to the node's top level
+		int ep = entryPoint;
+		for (int lc = maxLevel; lc > level; lc--)
+			ep = searchLayer(movie, new int[] {ep}, 1, lc).get(0).node;
+
+		// Link the node on each of its levels
+		int[] entries = {ep};
+		for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+			List<Candidate> found = searchLayer(movie, entries, efConstruction, lc);
+			int maxLinks = (lc == 0) ? maxLinks0 : m;
+			int[] selected = selectNeighbours(movie, found, m);
+			links.get(node)[lc] = selected;
+
+			for (int neighbour: selected) {
+				int[] current = links.get(neighbour)[lc];
+				int[] updated = Arrays.copyOf(current, current.length + 1);
+				updated[current.length] = node;
+				if (updated.length > maxLinks)
+					updated = shrink(neighbour, updated, maxLinks);
+				links.get(neighbour)[lc] = updated;
+			}
+
+			entries = new int[found.size()];
+			for (int i = 0; i < entries.length; i++)
+				entries[i] = found.get(i).node;
+		}
+
+		if (level > maxLevel) {
+			entryPoint = node;
+			maxLevel = level;
+		}
+		return true;
+	}
+
+	/**
+	 * finds the movies in the index which are most similar to a movie
+	 * @param query - the movie (which need not be in the index; it is excluded from the result if it is)
+	 * @param k - the number of neighbours to return
+	 * @return up to k neighbours with similarity greater than zero, as 
+	 * ScoredObjectDsc objects holding each Movie and its similarity, in 
+	 * descending order of similarity (ties by ascending movie id)
+	 */
+	public List<ScoredObjectDsc> search(Movie query, int k) {
+		List<ScoredObjectDsc> result = new ArrayList<>();
+		if (k < 1)
+			return result;
+
+		lock.readLock().lock();
+		try {
+			if (entryPoint < 0)
+				return result;
+
+			int ep = entryPoint;
+			for (int lc = maxLevel; lc > 0; lc--)
+				ep = searchLayer(query, new int[] {ep}, 1, lc).get(0).node;
+
+			// Search for one more node than needed, as the query movie may be found; k is 
+			// clamped to the number of nodes first so that k + 1 cannot overflow
+			int ef = Math.max(efSearch, Math.min(k, nodes.size()) + 1);
+
+			// Rank the nodes found by similarity and movie id before keeping the k best
+			List<Candidate> found = new ArrayList<>();
+			for (Candidate c: searchLayer(query, new int[] {ep}, ef, 0))
+				if (nodes.get(c.node).getId() != query.getId() && c.sim > 0)
+					found.add(c);
+			found.sort(Comparator.comparingDouble((Candidate c) -> -c.sim)
+					.thenComparingInt(c -> nodes.get(c.node).getId()));
+
+			for (int i = 0; i < found.size() && i < k; i++)
+				result.add(new ScoredObjectDsc(found.get(i).sim, nodes.get(found.get(i).node)));
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * searches one level of the graph
+	 * @param query - the query movie
+	 * @param entries - the nodes from which to start
+	 * @param ef - the beam width
+	 * @param level - the level
+	 * @return up to ef nodes found, in descending order of similarity to the query
+	 */
+	private List<Candidate> searchLayer(Movie query, int[] entries, int ef, int level) {
+		VisitedNodes visitedNodes = visited.get();
+		visitedNodes.start(nodes.size());
+		PriorityQueue<Candidate> candidates = new PriorityQueue<>(Candidate.BEST_FIRST);
+		PriorityQueue<Candidate> found = new PriorityQueue<>(Candidate.WORST_FIRST);
+		for (int e: entries) {
+			visitedNodes.visit(e);
+			Candidate c = new Candidate(e, metric.calculateSimilarity(query, nodes.get(e)));
+			candidates.add(c);
+			found.add(c);
+			if (found.size() > ef)
+				found.poll();
+		}
+
+		while (!candidates.isEmpty()) {
+			Candidate c = candidates.poll();
+			if (found.size() >= ef && c.sim < found.peek().sim)
+				break; // all remaining candidates are worse than the worst node found
+
+			int[][] nodeLinks = links.get(c.node);
+			if (level >= nodeLinks.length)
+				continue;
+
+			// Score the unvisited neighbours in one batch
+			int numFresh = 0;
+			int[] fresh = new int[nodeLinks[level].length];
+			Movie[] freshMovies = new Movie[fresh.length];
+			for (int neighbour: nodeLinks[level])
+				if (visitedNodes.visit(neighbour)) {
+					fresh[numFresh] = neighbour;
+					freshMovies[numFresh++] = nodes.get(neighbour);
+				}
+			double[] sims = new double[numFresh];
+			metric.calculateSimilarities(query, freshMovies, 0, numFresh, sims);
+
+			for (int f = 0; f < numFresh; f++) {
+				int neighbour = fresh[f];
+				double sim = sims[f];
+				if (found.size() < ef || sim > found.peek().sim) {
+					Candidate n = new Candidate(neighbour, sim);
+					candidates.add(n);
+					found.add(n);
+					if (found.size() > ef)
+						found.poll();
+				}
+			}
+		}
+
+		List<Candidate> result = new ArrayList<>(found);
+		result.sort(Candidate.BEST_FIRST);
+		return result;
+	}
+
+	/**
+	 * selects up to max neighbours among candidates by the HNSW heuristic: a 
+	 * candidate is selected if it is more similar to the query than to every 
+	 * neighbour selected so far; if fewer than max are selected, the best of 
+	 * the rejected candidates are added
+	 * @param query - the query movie
+	 * @param candidates - the candidates, in descending order of similarity to the query
+	 * @param max - the maximum number of neighbours
+	 * @return the selected nodes
+	 */
+	private int[] selectNeighbours(Movie query, List<Candidate> candidates, int max) {
+		int[] selected = new int[Math.min(max, candidates.size())];
+		boolean[] taken = new boolean[candidates.size()];
+		int n = 0;
+		for (int i = 0; i < candidates.size() && n < selected.length; i++) {
+			Candidate c = candidates.get(i);
+			boolean diverse = true;
+			for (int s = 0; s < n && diverse; s++)
+				if (metric.calculateSimilarity(nodes.get(c.node), nodes.get(selected[s])) > c.sim)
+					diverse = false;
+			if (diverse) {
+				selected[n++] = c.node;
+				taken[i] = true;
+			}
+		}
+
+		// Keep the best rejected candidates so that nodes stay well connected
+		for (int i = 0; i < candidates.size() && n < selected.length; i++)
+			if (!taken[i])
+				selected[n++] = candidates.get(i).node;
+		return selected;
+	}
+
+	/**
+	 * reduces the links of a node to the maximum allowed
+	 * @param node - the node
+	 * @param current - the node's links
+	 * @param maxLinks - the maximum number of links
+	 * @return the links to keep
+	 */
+	private int[] shrink(int node, int[] current, int maxLinks) {
+		Movie movie = nodes.get(node);
+		Movie[] neighbours = new Movie[current.length];
+		for (int i = 0; i < current.length; i++)
+			neighbours[i] = nodes.get(current[i]);
+		double[] sims = new double[current.length];
+		metric.calculateSimilarities(movie, neighbours, sims);
+
+		List<Candidate> candidates = new ArrayList<>();
+		for (int i = 0; i < current.length; i++)
+			candidates.add(new Candidate(current[i], sims[i]));
+		candidates.sort(Candidate.BEST_FIRST);
+		return selectNeighbours(movie, candidates, maxLinks);
+	}
+
+	/**
+	 * The nodes visited by one search, marked with the number of the search 
+	 * so that the marks need not be cleared between searches
+	 */
+	private static class VisitedNodes {
+		private int[] marks = new int[16]; // the search in which each node was last visited
+		private int search; // the number of the current search
+
+		/**
+		 * starts a new search
+		 * @param numNodes - the number of nodes in the index
+		 */
+		void start(int numNodes) {
+			if (marks.length < numNodes)
+				marks = Arrays.copyOf(marks, Math.max(numNodes, marks.length * 2));
+			if (++search == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				search = 1;
+			}
+		}
+
+		/**
+		 * marks a node as visited
+		 * @param node - the node
+		 * @return true if the node had not been visited by the current search
+		 */
+		boolean visit(int node) {
+			if (marks[node] == search)
+				return false;
+			marks[node] = search;
+			return true;
+		}
+	}
+
+	/**
+	 * A node found by a search and its similarity to the query
+	 */
+	private static class Candidate {
+		// Orders by descending similarity (ties by ascending node)
+		static final Comparator<Candidate> BEST_FIRST = (a, b) -> 
+				(a.sim != b.sim) ? Double.compare(b.sim, a.sim) : Integer.compare(a.node, b.node);
+		// Orders by ascending similarity (ties by descending node)
+		static final Comparator<Candidate> WORST_FIRST = BEST_FIRST.reversed();
+
+		int node; // the node
+		double sim; // the similarity to the query
+
+		Candidate(int node, double sim) {
+			this.node = node;
+			this.sim = sim;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * An approximate nearest-neighbour index over the dense movie genome vectors 
+ * (see Casebase.buildGenomeVectors), based on random hyperplane (SimHash) 
+ * locality-sensitive hashing.
+ * 
+ * Each of L tables hashes a movie to a signature of b bits, where bit i is 
+ * set if the genome vector lies on the positive side of a random hyperplane. 
+ * Two movies whose vectors are at angle theta get the same bit with 
+ * probability 1 - theta / pi, so they share a bucket in a given table with 
+ * probability p^b (p = 1 - theta / pi), and are candidates for each other 
+ * with probability 1 - (1 - p^b)^L. More bits per table make the buckets 
+ * smaller (fewer candidates, lower recall); more tables raise recall at the 
+ * cost of more candidates. measureRecall reports the recall@K obtained with 
+ * the chosen parameters.
+ * 
+ * The candidates of each movie are scored exactly by GenomeCosineSimilarity 
+ * (see LshIndex.getNeighbours), so the similarities in the neighbour matrix 
+ * are exact; only neighbours which never share a bucket with the movie are 
+ * missed. Building the index costs O(n * L * b * d) for n movies with d 
+ * genome tags.
+ */
+
+package alg.cb.index;
+
+import java.util.Random;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.GenomeCosineSimilarity;
+
+public class HyperplaneLshIndex extends LshIndex {
+	private int numTables; // the number of hash tables (L)
+	private int bitsPerTable; // the number of hyperplanes per table (b)
+	private long seed; // the seed used to draw the hyperplanes
+
+	/**
+	 * constructor - creates a new, empty index
+	 * @param numTables - the number of hash tables (L)
+	 * @param bitsPerTable - the number of hyperplanes per table (b, 1 to 32)
+	 * @param seed - the seed used to draw the hyperplanes
+	 */
+	public HyperplaneLshIndex(int numTables, int bitsPerTable, long seed) {
+		super(new GenomeCosineSimilarity());
+		if (numTables < 1)
+			throw new IllegalArgumentException("numTables must be at least 1");
+		if (bitsPerTable < 1 || bitsPerTable > 32)
+			throw new IllegalArgumentException("bitsPerTable must be between 1 and 32");
+
+		this.numTables = numTables;
+		this.bitsPerTable = bitsPerTable;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of hash tables
+	 */
+	public int getNumTables() {
+		return numTables;
+	}
+
+	/**
+	 * @return the number of hyperplanes per table
+	 */
+	public int getBitsPerTable() {
+		return bitsPerTable;
+	}
+
+	/**
+	 * indexes all movies in the casebase which have a dense genome vector
+	 * @param cb - the casebase
+	 * @param parallelism - the number of threads used to hash the movies
+	 */
+	@Override
+	public void build(Casebase cb, int parallelism) {
+		Movie[] movies = cb.getMovieArray();
+		int[] tagIds = cb.getGenomeTagIds();
+		int dim = (tagIds != null) ? tagIds.length : 0;
+
+		// Draw the hyperplanes (one row of hyperplanes[t] per bit)
+		Random random = new Random(seed);
+		double[][][] hyperplanes = new double[numTables][bitsPerTable][dim];
+		for (int t = 0; t < numTables; t++)
+			for (int b = 0; b < bitsPerTable; b++)
+				for (int k = 0; k < dim; k++)
+					hyperplanes[t][b][k] = random.nextGaussian();
+
+		// Hash the movies
+		BucketTables tables = new BucketTables(numTables, movies.length);
+		BucketTables.forEachBlock(movies.length, parallelism, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				double[] v = movies[i].getGenomeVector();
+				if (v == null || v.length != dim)
+					continue;
+				for (int t = 0; t < numTables; t++) {
+					int signature = 0;
+					for (int b = 0; b < bitsPerTable; b++) {
+						double[] h = hyperplanes[t][b];
+						double dot = 0;
+						for (int k = 0; k < dim; k++)
+							dot += v[k] * h[k];
+						if (dot >= 0)
+							signature |= 1 << b;
+					}
+					tables.put(t, i, signature);
+				}
+			}
+		});
+		tables.sort();
+		setTables(movies, tables);
+	}
+}
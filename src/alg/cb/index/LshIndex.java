@@ -0,0 +1,153 @@
+/**
+ * An abstract class to define an approximate nearest-neighbour index based 
+ * on locality-sensitive hashing. Subclasses hash the movies into bucket 
+ * tables (see BucketTables); movies which share a bucket in at least one 
+ * table are candidate neighbours, and the candidates are then scored by a 
+ * similarity metric.
+ */
+
+package alg.cb.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.SimilarityMetric;
+import alg.cb.util.CsrMatrix;
+import alg.cb.util.NeighbourHeap;
+
+public abstract class LshIndex {
+	private SimilarityMetric metric; // the metric used to score the candidates
+	private Movie[] movies; // the indexed movies, indexed by ordinal
+	private BucketTables tables; // the hash tables
+
+	/**
+	 * constructor - creates a new, empty index
+	 * @param metric - the metric used to score the candidates
+	 */
+	protected LshIndex(SimilarityMetric metric) {
+		this.metric = metric;
+	}
+
+	/**
+	 * indexes the movies in the casebase
+	 * @param cb - the casebase
+	 * @param parallelism - the number of threads used to hash the movies
+	 */
+	public abstract void build(Casebase cb, int parallelism);
+
+	/**
+	 * sets the indexed movies and their hash tables (called by build)
+	 * @param movies - the movies, indexed by ordinal
+	 * @param tables - the sorted hash tables
+	 */
+	void setTables(Movie[] movies, BucketTables tables) {
+		this.movies = movies;
+		this.tables = tables;
+	}
+
+	/**
+	 * @return the metric used to score the candidates
+	 */
+	public SimilarityMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 * @param ordinal - the ordinal of a movie
+	 * @return the ordinals of the movies which share a bucket with the 
+	 * specified movie in at least one table (excluding the movie itself), 
+	 * in no particular order
+	 */
+	public int[] getCandidates(int ordinal) {
+		return tables.getCandidates(ordinal, new int[movies.length], new int[movies.length]);
+	}
+
+	/**
+	 * @param k - the number of neighbours to keep for each movie
+	 * @param parallelism - the number of threads used to score the candidates
+	 * @return a matrix keyed by movie ordinal holding, for each movie, the k 
+	 * candidates with the highest similarity greater than zero
+	 */
+	public CsrMatrix getNeighbours(int k, int parallelism) {
+		int n = movies.length;
+		int[][] rowCols = new int[n][];
+		double[][] rowValues = new double[n][];
+
+		BucketTables.forEachBlock(n, parallelism, (from, to) -> {
+			int[] stamp = new int[n];
+			int[] buffer = new int[n];
+			for (int i = from; i < to; i++) {
+				NeighbourHeap heap = score(i, tables.getCandidates(i, stamp, buffer), k);
+				rowCols[i] = heap.getCols();
+				rowValues[i] = heap.getValues();
+			}
+		});
+
+		return CsrMatrix.fromRows(rowCols, rowValues, null);
+	}
+
+	/**
+	 * Estimates recall@K: for a random sample of indexed movies, the fraction 
+	 * of each movie's top k neighbours over all movies (by the metric) which 
+	 * are also among its top k candidates.
+	 * @param k - the number of neighbours
+	 * @param sampleSize - the number of movies to sample
+	 * @param sampleSeed - the seed used to draw the sample
+	 * @return the recall (between 0 and 1), or 1 if no movie has a neighbour
+	 */
+	public double measureRecall(int k, int sampleSize, long sampleSeed) {
+		int[] indexed = tables.getHashed();
+
+		// Draw the sample by a partial Fisher-Yates shuffle
+		Random random = new Random(sampleSeed);
+		sampleSize = Math.min(sampleSize, indexed.length);
+		for (int i = 0; i < sampleSize; i++) {
+			int j = i + random.nextInt(indexed.length - i);
+			int tmp = indexed[i]; indexed[i] = indexed[j]; indexed[j] = tmp;
+		}
+
+		int[] all = new int[movies.length];
+		for (int i = 0; i < all.length; i++)
+			all[i] = i;
+		int[] stamp = new int[movies.length];
+		int[] buffer = new int[movies.length];
+
+		long found = 0, total = 0;
+		for (int s = 0; s < sampleSize; s++) {
+			int i = indexed[s];
+			int[] exact = score(i, all, k).getCols();
+			int[] approx = score(i, tables.getCandidates(i, stamp, buffer), k).getCols();
+
+			Arrays.sort(approx);
+			for (int col: exact)
+				if (Arrays.binarySearch(approx, col) >= 0)
+					found++;
+			total += exact.length;
+		}
+
+		return (total > 0) ? found * 1.0 / total : 1;
+	}
+
+	/**
+	 * scores candidates and keeps the best k
+	 * @param ordinal - the ordinal of the movie
+	 * @param candidates - the ordinals of the candidates
+	 * @param k - the number of neighbours to keep
+	 * @return a heap holding the best k candidates with similarity greater than zero
+	 */
+	private NeighbourHeap score(int ordinal, int[] candidates, int k) {
+		Movie[] candidateMovies = new Movie[candidates.length];
+		for (int c = 0; c < candidates.length; c++)
+			candidateMovies[c] = movies[candidates[c]];
+		double[] sims = new double[candidates.length];
+		metric.calculateSimilarities(movies[ordinal], candidateMovies, sims);
+
+		NeighbourHeap heap = new NeighbourHeap(k);
+		for (int c = 0; c < candidates.length; c++)
+			if (candidates[c] != ordinal && sims[c] > 0)
+				heap.offer(candidates[c], sims[c]);
+		return heap;
+	}
+}
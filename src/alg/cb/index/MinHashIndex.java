@@ -0,0 +1,93 @@
+/**
+ * An approximate nearest-neighbour index for MinHashJaccardSimilarity, based 
+ * on banding the MinHash signatures.
+ * 
+ * The signature of h values is split into b bands of r = h / b values; each 
+ * band is a hash table in which movies whose values agree over the whole 
+ * band share a bucket. Two movies with Jaccard index J share a bucket in a 
+ * given band with probability J^r, and so are candidates for each other 
+ * with probability 1 - (1 - J^r)^b (see getCandidateProbability). This 
+ * S-shaped curve rises most steeply at about J = (1 / b)^(1 / r): more bands 
+ * find pairs with lower J (higher recall, more candidates), and more values 
+ * per band filter them more strongly. measureRecall reports the recall@K 
+ * obtained with the chosen parameters.
+ * 
+ * The candidates are scored by the metric's estimate of the Jaccard index.
+ */
+
+package alg.cb.index;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.MinHashJaccardSimilarity;
+
+public class MinHashIndex extends LshIndex {
+	private MinHashJaccardSimilarity metric; // the metric which holds the signatures
+	private int numBands; // the number of bands (b)
+	private int rowsPerBand; // the number of signature values per band (r)
+
+	/**
+	 * constructor - creates a new, empty index
+	 * @param metric - the metric which holds the signatures of the movies
+	 * @param numBands - the number of bands (must divide the signature length)
+	 */
+	public MinHashIndex(MinHashJaccardSimilarity metric, int numBands) {
+		super(metric);
+		if (numBands < 1 || metric.getNumHashes() % numBands != 0)
+			throw new IllegalArgumentException("numBands must divide the signature length");
+
+		this.metric = metric;
+		this.numBands = numBands;
+		this.rowsPerBand = metric.getNumHashes() / numBands;
+	}
+
+	/**
+	 * @return the number of bands
+	 */
+	public int getNumBands() {
+		return numBands;
+	}
+
+	/**
+	 * @return the number of signature values per band
+	 */
+	public int getRowsPerBand() {
+		return rowsPerBand;
+	}
+
+	/**
+	 * @param jaccard - the Jaccard index of two movies
+	 * @return the probability that the movies are candidates for each other
+	 */
+	public double getCandidateProbability(double jaccard) {
+		return 1 - Math.pow(1 - Math.pow(jaccard, rowsPerBand), numBands);
+	}
+
+	/**
+	 * indexes all movies in the casebase which have a signature (the casebase 
+	 * must be the one for which the metric was created)
+	 * @param cb - the casebase
+	 * @param parallelism - the number of threads used to hash the movies
+	 */
+	@Override
+	public void build(Casebase cb, int parallelism) {
+		Movie[] movies = cb.getMovieArray();
+
+		BucketTables tables = new BucketTables(numBands, movies.length);
+		BucketTables.forEachBlock(movies.length, parallelism, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				if (!metric.hasSignature(i))
+					continue;
+				for (int band = 0; band < numBands; band++) {
+					// Hash the band's values to a 32-bit bucket signature
+					int signature = band;
+					for (int r = band * rowsPerBand; r < (band + 1) * rowsPerBand; r++)
+						signature = 31 * signature + metric.getSignatureValue(i, r);
+					tables.put(band, i, signature);
+				}
+			}
+		});
+		tables.sort();
+		setTables(movies, tables);
+	}
+}
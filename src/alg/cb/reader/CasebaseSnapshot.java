@@ -0,0 +1,285 @@
+/**
+ * A class to save and restore a loaded dataset (the casebase plus the
+ * training and test rating matrices) as a binary snapshot, so that a warm
+ * restart does not need to re-parse the CSV files.
+ *
+ * File layout (all values big-endian):
+ *   header:  int magic, int version, long payload length, long CRC-32 of payload
+ *   payload: int #movies, then for each movie in ordinal order:
+ *              int id, int year, string title, int #genres, string genre...,
+ *              sparse vector genome scores, sparse vector ratings
+ *            matrix train ratings, matrix test ratings
+ *   string:        int #bytes, UTF-8 bytes
+ *   sparse vector: int #entries (-1 if absent), int keys[#entries], double values[#entries]
+ *   matrix:        int #rows (-1 if absent), then for each row: int row id, sparse vector
+ */
+
+package alg.cb.reader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.util.Matrix;
+
+public class CasebaseSnapshot {
+	private static final int MAGIC = 0x4D564353; // "MVCS"
+	private static final int VERSION = 2; // increment whenever the layout changes
+	private static final int HEADER_SIZE = 24; // magic, version, payload length, checksum
+
+	private Casebase cb; // the casebase
+	private Matrix trainRatings; // the training ratings for each user (may be null)
+	private Matrix testRatings; // the test ratings for each user (may be null)
+
+	/**
+	 * constructor - creates a new CasebaseSnapshot object
+	 * @param cb - the casebase
+	 * @param trainRatings - the training ratings for each user (may be null)
+	 * @param testRatings - the test ratings for each user (may be null)
+	 */
+	private CasebaseSnapshot(Casebase cb, Matrix trainRatings, Matrix testRatings) {
+		this.cb = cb;
+		this.trainRatings = trainRatings;
+		this.testRatings = testRatings;
+	}
+
+	/**
+	 * @return the casebase
+	 */
+	public Casebase getCasebase() {
+		return cb;
+	}
+
+	/**
+	 * @return the training ratings for each user or null if none were saved
+	 */
+	public Matrix getTrainRatings() {
+		return trainRatings;
+	}
+
+	/**
+	 * @return the test ratings for each user or null if none were saved
+	 */
+	public Matrix getTestRatings() {
+		return testRatings;
+	}
+
+	/**
+	 * Writes a snapshot. The snapshot is written to a temporary file which
+	 * then replaces the target, so a reader never sees a partial snapshot.
+	 * @param filename - the path and filename of the snapshot
+	 * @param cb - the casebase
+	 * @param trainRatings - the training ratings for each user (may be null)
+	 * @param testRatings - the test ratings for each user (may be null)
+	 * @throws IOException - if the snapshot cannot be written
+	 */
+	public static void write(String filename, Casebase cb, Matrix trainRatings, Matrix testRatings) throws IOException {
+		Path target = Paths.get(filename).toAbsolutePath();
+		Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			// Write the payload after space reserved for the header
+			channel.position(HEADER_SIZE);
+			CRC32 crc = new CRC32();
+			OutputStream channelOut = Channels.newOutputStream(channel);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(channelOut, crc), 1 << 16));
+
+			// Write the movies in ordinal order, so that reading them back 
+			// assigns the same ordinals as the original casebase
+			Movie[] movies = cb.getMovieArray();
+			out.writeInt(movies.length);
+			for (Movie m: movies) {
+				out.writeInt(m.getId());
+				out.writeInt(m.getYear());
+				writeString(out, m.getTitle());
+				out.writeInt(m.getGenres().size());
+				for (String genre: m.getGenres())
+					writeString(out, genre);
+				writeVector(out, m.getGenomeScores());
+				writeVector(out, m.getRatings());
+			}
+			writeMatrix(out, trainRatings);
+			writeMatrix(out, testRatings);
+			out.flush();
+
+			// Fill in the header
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(out.size()).putLong(crc.getValue());
+			header.flip();
+			channel.write(header, 0);
+			channel.force(true);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot. The file is memory-mapped, its checksum is verified
+	 * and the casebase and rating matrices are rebuilt in a single pass.
+	 * @param filename - the path and filename of the snapshot
+	 * @return the snapshot
+	 * @throws IOException - if the snapshot cannot be read, is of an unsupported
+	 * version or fails its checksum
+	 */
+	public static CasebaseSnapshot read(String filename) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("Snapshot \"" + filename + "\" is truncated");
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Snapshot \"" + filename + "\" is too large to be mapped");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		// Validate the header
+		int magic = buffer.getInt();
+		int version = buffer.getInt();
+		long length = buffer.getLong();
+		long checksum = buffer.getLong();
+		if (magic != MAGIC)
+			throw new IOException("\"" + filename + "\" is not a casebase snapshot");
+		if (version != VERSION)
+			throw new IOException("Unsupported snapshot version " + version + " in \"" + filename + "\"");
+		if (length != buffer.remaining())
+			throw new IOException("Snapshot \"" + filename + "\" is truncated");
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		if (crc.getValue() != checksum)
+			throw new IOException("Checksum mismatch in snapshot \"" + filename + "\"");
+
+		// Rebuild the casebase
+		Casebase cb = new Casebase();
+		int numMovies = buffer.getInt();
+		for (int i = 0; i < numMovies; i++) {
+			int id = buffer.getInt();
+			int year = buffer.getInt();
+			String title = readString(buffer);
+
+			int numGenres = buffer.getInt();
+			Set<String> genres = new HashSet<>();
+			for (int j = 0; j < numGenres; j++)
+				genres.add(readString(buffer));
+
+			Map<Integer,Double> genomeScores = readVector(buffer);
+			Map<Integer,Double> ratings = readVector(buffer);
+			cb.addMovie(id, new Movie(id, title, year, genres, genomeScores, ratings));
+		}
+
+		cb.buildIndexes();
+
+		Matrix trainRatings = readMatrix(buffer);
+		Matrix testRatings = readMatrix(buffer);
+
+		return new CasebaseSnapshot(cb, trainRatings, testRatings);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVector(DataOutputStream out, Map<Integer,Double> vector) throws IOException {
+		if (vector == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		// Write the keys and then the values so that both are read back as contiguous blocks
+		int[] keys = new int[vector.size()];
+		double[] values = new double[vector.size()];
+		int n = 0;
+		for (Map.Entry<Integer,Double> e: vector.entrySet()) {
+			keys[n] = e.getKey();
+			values[n] = e.getValue();
+			n++;
+		}
+
+		out.writeInt(n);
+		for (int i = 0; i < n; i++)
+			out.writeInt(keys[i]);
+		for (int i = 0; i < n; i++)
+			out.writeDouble(values[i]);
+	}
+
+	private static Map<Integer,Double> readVector(ByteBuffer buffer) {
+		int n = buffer.getInt();
+		if (n < 0)
+			return null;
+
+		int[] keys = new int[n];
+		buffer.asIntBuffer().get(keys);
+		buffer.position(buffer.position() + 4 * n);
+
+		double[] values = new double[n];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * n);
+
+		Map<Integer,Double> vector = new HashMap<>(n * 4 / 3 + 1);
+		for (int i = 0; i < n; i++)
+			vector.put(keys[i], values[i]);
+		return vector;
+	}
+
+	private static void writeMatrix(DataOutputStream out, Matrix matrix) throws IOException {
+		if (matrix == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(matrix.getRowIds().size());
+		for (int row: matrix.getRowIds()) {
+			out.writeInt(row);
+			writeVector(out, matrix.getRow(row));
+		}
+	}
+
+	private static Matrix readMatrix(ByteBuffer buffer) {
+		int numRows = buffer.getInt();
+		if (numRows < 0)
+			return null;
+
+		Matrix matrix = new Matrix();
+		for (int i = 0; i < numRows; i++) {
+			int row = buffer.getInt();
+			int n = buffer.getInt();
+
+			int keyPos = buffer.position();
+			int valuePos = keyPos + 4 * n;
+			for (int j = 0; j < n; j++)
+				matrix.addValue(row, buffer.getInt(keyPos + 4 * j), buffer.getDouble(valuePos + 8 * j));
+			buffer.position(valuePos + 8 * n);
+		}
+		return matrix;
+	}
+}
@@ -7,6 +7,7 @@ package alg.cb.reader;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -14,14 +15,20 @@ import java.util.StringTokenizer;
 import alg.cb.casebase.Casebase;
 import alg.cb.casebase.Movie;
 import alg.cb.util.Matrix;
+import alg.cb.util.RatingsIndex;
 
 
 public class DatasetReader {
+	// Column layout of the ratings files: each line has the form userId,movieId,rating
+	private static final int RATINGS_USER_COLUMN = 0;
+	private static final int RATINGS_MOVIE_COLUMN = 1;
+
 	private Casebase cb; // Stores Movie objects
+	private boolean parallel; // if true, files are memory-mapped and parsed in parallel
 	
-	
-	private Matrix trainRatings;
-	private Matrix testRatings;
+	private RatingsIndex trainIndex; // the training ratings indexed by movie and by user
+	private Matrix trainRatings; // the training ratings for each user
+	private Matrix testRatings; // the test ratings for each user
 
 	/** 
 	 * constructor - creates a new DatasetReader object
@@ -30,62 +37,67 @@ public class DatasetReader {
 	 * @param ratingsFile - the path and filename of the file containing the user-item ratings
 	 */
 	public DatasetReader(String movieFile, String genomeScoresFile, String ratingsFile) {
-		readCasebase(movieFile, genomeScoresFile, ratingsFile);
+		this(movieFile, genomeScoresFile, ratingsFile, false);
+	}
+	
+	/** 
+	 * constructor - creates a new DatasetReader object
+	 * @param movieFile - the path and filename of the file containing movie metadata
+	 * @param genomeScoresFile - the path and filename of the file containing the movie genome scores
+	 * @param ratingsFile - the path and filename of the file containing the user-item ratings
+	 * @param parallel - if true, each file is memory-mapped and parsed in parallel on all cores
+	 */
+	public DatasetReader(String movieFile, String genomeScoresFile, String ratingsFile, boolean parallel) {
+		this.parallel = parallel;
+		RatingsIndex ratings = readRatings(ratingsFile);
+		readCasebase(movieFile, genomeScoresFile, ratings.getMovieRatings());
 	}
 	
 	public DatasetReader(String movieFile, String genomeScoresFile, String trainRatingsFile, String testRatingsFile) {
-		readCasebase(movieFile, genomeScoresFile, trainRatingsFile);
-		trainRatings = readUserRatings(trainRatingsFile);
-		testRatings = readUserRatings(testRatingsFile);
+		this(movieFile, genomeScoresFile, trainRatingsFile, testRatingsFile, false);
+	}
+	
+	/** 
+	 * constructor - creates a new DatasetReader object
+	 * @param movieFile - the path and filename of the file containing movie metadata
+	 * @param genomeScoresFile - the path and filename of the file containing the movie genome scores
+	 * @param trainRatingsFile - the path and filename of the file containing the training ratings
+	 * @param testRatingsFile - the path and filename of the file containing the test ratings
+	 * @param parallel - if true, each file is memory-mapped and parsed in parallel on all cores
+	 */
+	public DatasetReader(String movieFile, String genomeScoresFile, String trainRatingsFile, String testRatingsFile, boolean parallel) {
+		this.parallel = parallel;
+		
+		// The training ratings file is read once; both the movie -> user ratings used
+		// by the casebase and the user -> movie ratings matrix are built from that pass
+		trainIndex = readRatings(trainRatingsFile);
+		readCasebase(movieFile, genomeScoresFile, trainIndex.getMovieRatings());
+		trainRatings = trainIndex.getUserRatings();
+		testRatings = readRatings(testRatingsFile).getUserRatings();
 	}
 	
+	/**
+	 * @return the training ratings for each user (rows are user ids, columns are movie ids)
+	 */
 	public Matrix getTrainRatings() {
 		return trainRatings;
 	}
 	
+	/**
+	 * @return the test ratings for each user (rows are user ids, columns are movie ids)
+	 */
 	public Matrix getTestRatings() {
 		return testRatings;
 	}
 	
-
-	private Matrix readUserRatings(String ratingsFile) {
-		Matrix matrix = new Matrix();
-		
-		File file = new File(ratingsFile);
-		Scanner input = null;
-		
-		try {
-			input = new Scanner(file);
-			
-			while (input.hasNext()) {
-				String line = input.nextLine();
-				
-				StringTokenizer st = new StringTokenizer(line, ",");
-				int ntokens = st.countTokens();
-				if(ntokens != 3) {
-					System.out.println("Error");
-					System.exit(1);
-				}
-				
-				int movieId = Integer.valueOf(st.nextToken());
-				int UserId = Integer.valueOf(st.nextToken());
-				double rating = Double.valueOf(st.nextToken());
-				
-				matrix.addValue(movieId, UserId, rating);
-				
-			}
-			
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.exit(1);
-		} finally {
-			if (input != null)
-				input.close();	
-		}
-		
-		return matrix;
+	/**
+	 * @return the training ratings indexed both by movie and by user, or null if 
+	 * no separate training ratings file was specified
+	 */
+	public RatingsIndex getTrainRatingsIndex() {
+		return trainIndex;
 	}
-		
+	
 
 	/**
 	 * @return the casebase
@@ -98,16 +110,30 @@ public class DatasetReader {
 	 * Creates the casebase
 	 * @param movieFile - the path and filename of the file containing movie metadata
 	 * @param genomeScoresFile - the path and filename of the file containing the movie genome scores
-	 * @param ratingsFile - the path and filename of the file containing the user-item ratings
+	 * @param movieRatings - the ratings for each movie (rows are movie ids, columns are user ids)
 	 */
-	private void readCasebase(String movieFile, String genomeScoresFile, String ratingsFile) {
-		// Read the genome scores and the ratings for each movie
+	private void readCasebase(String movieFile, String genomeScoresFile, Matrix movieRatings) {
+		// Read the genome scores for each movie
 		Matrix genomeScores = readGenomeScores(genomeScoresFile);
-		Matrix movieRatings = readMovieRatings(ratingsFile);
 		
 		// Initialise the Casebase data field
 		cb = new Casebase();
 
+		if (parallel) {
+			// Parse the movie file in parallel and add the movies to the casebase in file order
+			List<Movie> movies = null;
+			try {
+				movies = MappedCsvReader.readLines(movieFile, line -> parseMovie(line, movieFile, genomeScores, movieRatings));
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+			for (Movie movie: movies)
+				cb.addMovie(movie.getId(), movie);
+			cb.buildIndexes();
+			return;
+		}
+
 		// Create a File object
 		File file = new File(movieFile);
 
@@ -121,39 +147,9 @@ public class DatasetReader {
 			while (input.hasNext()) { // Returns true if the scanner has more data to be read
 				String line = input.nextLine();
 
-				// Parse the movie information
-				int firstIndex = line.indexOf(",");
-				int lastIndex = line.lastIndexOf(",");
-
-				int movieId = Integer.valueOf(line.substring(0, firstIndex));
-
-				// Parse the title and year
-				String titleStr = line.substring(firstIndex + 1, lastIndex);
-				if (titleStr.charAt(0) == '\"') // If present, remove quotation marks
-					titleStr = titleStr.substring(1, titleStr.length() - 1);
-				String title = titleStr.substring(0, titleStr.lastIndexOf('(')).trim(); // Remove the year
-
-				int year = Integer.valueOf(titleStr.substring(titleStr.lastIndexOf('(') + 1, titleStr.lastIndexOf(')')));
-
-				// Parse the genres
-				String genreStr = line.substring(lastIndex + 1);
-				StringTokenizer st = new StringTokenizer(genreStr, "|");
-				int ntokens = st.countTokens();
-				if(ntokens < 1) {
-					System.out.println("Error reading from file \"" + movieFile + "\"");
-					System.exit(1);
-				}
-
-				Set<String> genres = new HashSet<String>();
-				for (int i = 0; i < ntokens; i++) {
-					String genre = st.nextToken().toLowerCase().trim();
-					if(!genre.equals("imax")) // Exclude the generic genre imax
-						genres.add(genre);
-				}
-				
 				// Create a new Movie object and add it to the casebase
-				Movie movie = new Movie(movieId, title, year, genres, genomeScores.getRow(movieId), movieRatings.getRow(movieId));
-				cb.addMovie(movieId, movie);
+				Movie movie = parseMovie(line, movieFile, genomeScores, movieRatings);
+				cb.addMovie(movie.getId(), movie);
 			}
 		} catch(IOException e) {
 			e.printStackTrace();
@@ -163,6 +159,51 @@ public class DatasetReader {
 			if (input != null)
 				input.close();
 		}
+		
+		// Build the genome vectors and genre bitmasks used by the similarity metrics
+		cb.buildIndexes();
+	}
+
+	/** 
+	 * Parses a line of the movie file
+	 * @param line - the line
+	 * @param movieFile - the path and filename of the file containing movie metadata
+	 * @param genomeScores - the genome scores for each movie
+	 * @param movieRatings - the ratings for each movie
+	 * @return the Movie object described by the line
+	 */
+	private Movie parseMovie(String line, String movieFile, Matrix genomeScores, Matrix movieRatings) {
+		// Parse the movie information
+		int firstIndex = line.indexOf(",");
+		int lastIndex = line.lastIndexOf(",");
+
+		int movieId = Integer.valueOf(line.substring(0, firstIndex));
+
+		// Parse the title and year
+		String titleStr = line.substring(firstIndex + 1, lastIndex);
+		if (titleStr.charAt(0) == '\"') // If present, remove quotation marks
+			titleStr = titleStr.substring(1, titleStr.length() - 1);
+		String title = titleStr.substring(0, titleStr.lastIndexOf('(')).trim(); // Remove the year
+
+		int year = Integer.valueOf(titleStr.substring(titleStr.lastIndexOf('(') + 1, titleStr.lastIndexOf(')')));
+
+		// Parse the genres
+		String genreStr = line.substring(lastIndex + 1);
+		StringTokenizer st = new StringTokenizer(genreStr, "|");
+		int ntokens = st.countTokens();
+		if(ntokens < 1) {
+			System.out.println("Error reading from file \"" + movieFile + "\"");
+			System.exit(1);
+		}
+
+		Set<String> genres = new HashSet<String>();
+		for (int i = 0; i < ntokens; i++) {
+			String genre = st.nextToken().toLowerCase().trim();
+			if(!genre.equals("imax")) // Exclude the generic genre imax
+				genres.add(genre);
+		}
+
+		return new Movie(movieId, title, year, genres, genomeScores.getRow(movieId), movieRatings.getRow(movieId));
 	}
 
 	/**  
@@ -174,6 +215,13 @@ public class DatasetReader {
 		// Create a Matrix object to store the genome scores for each movie
 		Matrix matrix = new Matrix(); 
 
+		if (parallel) {
+			Triples triples = readTriples(genomeScoresFile);
+			for (int i = 0; i < triples.size; i++)
+				matrix.addValue(triples.first[i], triples.second[i], triples.value[i]);
+			return matrix;
+		}
+
 		// Create a File object
 		File file = new File(genomeScoresFile);
 
@@ -215,49 +263,69 @@ public class DatasetReader {
 	}
 
 	/** 
-	 * Read the ratings for each movie
+	 * Read the user-item ratings in a single pass
 	 * @param ratingsFile - the path and filename of the file containing the user-item ratings
-	 * @return a Matrix object that stores the ratings for each movie
+	 * @return the ratings indexed both by movie and by user
 	 */
-	private Matrix readMovieRatings(String ratingsFile) {
-		// Create a Matrix object to store the ratings for each movie
-		Matrix matrix = new Matrix(); 
+	private RatingsIndex readRatings(String ratingsFile) {
+		Triples triples;
 
-		// Create a File object
-		File file = new File(ratingsFile);
+		if (parallel)
+			triples = readTriples(ratingsFile);
+		else {
+			triples = new Triples(1024);
 
-		// Declare a Scanner reference variable
-		Scanner input = null;
+			// Create a File object
+			File file = new File(ratingsFile);
 
-		try {
-			// Create a Scanner for the file
-			input = new Scanner(file);
+			// Declare a Scanner reference variable
+			Scanner input = null;
 
-			while (input.hasNext()) { // Returns true if the scanner has more data to be read
-				String line = input.nextLine();
+			try {
+				// Create a Scanner for the file
+				input = new Scanner(file);
 
-				StringTokenizer st = new StringTokenizer(line, ",");
-				if(st.countTokens() != 3) {
-					System.out.println("Error reading from file \"" + ratingsFile + "\"");
-					System.exit(1);
-				}
+				while (input.hasNext()) { // Returns true if the scanner has more data to be read
+					String line = input.nextLine();
 
-				int userId = Integer.valueOf(st.nextToken());
-				int movieId = Integer.valueOf(st.nextToken());
-				double rating = Double.valueOf(st.nextToken());
+					StringTokenizer st = new StringTokenizer(line, ",");
+					if(st.countTokens() != 3) {
+						System.out.println("Error reading from file \"" + ratingsFile + "\"");
+						System.exit(1);
+					}
 
-				// Add the user id and rating for the current movie id to the matrix
-				matrix.addValue(movieId, userId, rating);
+					int firstId = Integer.valueOf(st.nextToken());
+					int secondId = Integer.valueOf(st.nextToken());
+					double rating = Double.valueOf(st.nextToken());
+
+					triples.add(firstId, secondId, rating);
+				}
+			} catch(IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			} finally {
+				// Close the Scanner
+				if (input != null)
+					input.close();
 			}
+		}
+
+		return new RatingsIndex(triples.column(RATINGS_USER_COLUMN), triples.column(RATINGS_MOVIE_COLUMN), triples.value, triples.size);
+	}
+
+	/** 
+	 * Reads a three-column file using the parallel memory-mapped reader
+	 * @param filename - the path and filename of the file
+	 * @return the rows of the file, in file order
+	 */
+	private Triples readTriples(String filename) {
+		Triples triples = null;
+		try {
+			triples = MappedCsvReader.readTriples(filename);
 		} catch(IOException e) {
 			e.printStackTrace();
 			System.exit(1);
-		} finally {
-			// Close the Scanner
-			if (input != null)
-				input.close();
 		}
-		
-		return matrix;
+		return triples;
 	}
 }
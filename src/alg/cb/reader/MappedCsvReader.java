@@ -0,0 +1,312 @@
+/**
+ * A class to read comma-separated files in parallel.
+ *
+ * Each file is memory-mapped and split into line-aligned chunks. The chunks
+ * are parsed concurrently (one task per chunk) and the results are returned
+ * in file order, so that callers see the rows exactly as a sequential reader
+ * would. Numeric fields are parsed directly from the mapped bytes without
+ * allocating a String per field.
+ */
+
+package alg.cb.reader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+class MappedCsvReader {
+	private static final long MAX_CHUNK_SIZE = 1L << 30; // a single mapping must not exceed 2GB
+	private static final int MAX_FAST_DIGITS = 15; // mantissas with at most this many digits are exactly representable
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 * constructor is private to prevent instantiation of the class
+	 */
+	private MappedCsvReader() {}
+
+	/**
+	 * Reads a file in which each line has the form "int,int,double".
+	 * @param filename - the path and filename of the file
+	 * @return the rows of the file, in file order
+	 * @throws IOException - if the file cannot be read or a line is malformed
+	 */
+	static Triples readTriples(String filename) throws IOException {
+		List<ByteBuffer> chunks = mapChunks(filename);
+
+		List<Callable<Triples>> tasks = new ArrayList<>();
+		for (ByteBuffer chunk: chunks)
+			tasks.add(() -> parseTriples(chunk, filename));
+
+		List<Triples> parts = invokeAll(tasks);
+		return Triples.concat(parts.toArray(new Triples[parts.size()]));
+	}
+
+	/**
+	 * Reads a file line by line, converting each non-empty line using the
+	 * specified function. Lines are decoded as UTF-8.
+	 * @param filename - the path and filename of the file
+	 * @param parser - the function used to convert each line
+	 * @return the converted lines, in file order
+	 * @throws IOException - if the file cannot be read
+	 */
+	static <T> List<T> readLines(String filename, Function<String,T> parser) throws IOException {
+		List<ByteBuffer> chunks = mapChunks(filename);
+
+		List<Callable<List<T>>> tasks = new ArrayList<>();
+		for (ByteBuffer chunk: chunks)
+			tasks.add(() -> parseLines(chunk, parser));
+
+		List<T> all = new ArrayList<>();
+		for (List<T> part: invokeAll(tasks))
+			all.addAll(part);
+		return all;
+	}
+
+	/**
+	 * Memory-maps a file and splits it into line-aligned chunks.
+	 * @param filename - the path and filename of the file
+	 * @return the chunks, in file order
+	 * @throws IOException - if the file cannot be read
+	 */
+	private static List<ByteBuffer> mapChunks(String filename) throws IOException {
+		List<ByteBuffer> chunks = new ArrayList<>();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0)
+				return chunks;
+
+			// Use several chunks per thread so that uneven chunks balance out
+			int numChunks = Math.max(ForkJoinPool.getCommonPoolParallelism() * 4, 1);
+			numChunks = (int)Math.max(numChunks, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE * 2);
+			long chunkSize = Math.max(size / numChunks, 1 << 16);
+
+			long start = 0;
+			while (start < size) {
+				long end = Math.min(start + chunkSize, size);
+				end = nextLineStart(channel, end, size);
+
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				chunks.add(buffer);
+				start = end;
+			}
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * @param channel - the file channel
+	 * @param pos - a position in the file
+	 * @param size - the size of the file
+	 * @return the position of the first line starting at or after pos
+	 */
+	private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+		if (pos >= size)
+			return size;
+
+		// Check whether pos already starts a line
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		if (channel.read(buffer, pos - 1) > 0 && buffer.get(0) == '\n')
+			return pos;
+
+		while (pos < size) {
+			buffer.clear();
+			int n = channel.read(buffer, pos);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++)
+				if (buffer.get(i) == '\n')
+					return pos + i + 1;
+			pos += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Parses a chunk in which each line has the form "int,int,double".
+	 * @param chunk - the chunk
+	 * @param filename - the path and filename of the file (used in error messages)
+	 * @return the rows of the chunk, in order
+	 */
+	private static Triples parseTriples(ByteBuffer chunk, String filename) {
+		int limit = chunk.limit();
+		Triples triples = new Triples(limit / 16);
+
+		int pos = 0;
+		while (pos < limit) {
+			// Find the end of the current line, ignoring a trailing carriage return
+			int eol = pos;
+			while (eol < limit && chunk.get(eol) != '\n')
+				eol++;
+			int end = (eol > pos && chunk.get(eol - 1) == '\r') ? eol - 1 : eol;
+
+			if (end > pos) {
+				int c1 = indexOf(chunk, (byte)',', pos, end);
+				int c2 = (c1 < 0) ? -1 : indexOf(chunk, (byte)',', c1 + 1, end);
+				if (c2 < 0 || indexOf(chunk, (byte)',', c2 + 1, end) >= 0)
+					throw new UncheckedIOException(new IOException("Error reading from file \"" + filename + "\""));
+
+				int a = parseInt(chunk, pos, c1, filename);
+				int b = parseInt(chunk, c1 + 1, c2, filename);
+				double v = parseDouble(chunk, c2 + 1, end);
+				triples.add(a, b, v);
+			}
+
+			pos = eol + 1;
+		}
+
+		return triples;
+	}
+
+	/**
+	 * Parses a chunk line by line.
+	 * @param chunk - the chunk
+	 * @param parser - the function used to convert each non-empty line
+	 * @return the converted lines, in order
+	 */
+	private static <T> List<T> parseLines(ByteBuffer chunk, Function<String,T> parser) {
+		List<T> lines = new ArrayList<>();
+		byte[] bytes = new byte[chunk.limit()];
+		chunk.duplicate().get(bytes);
+
+		int pos = 0;
+		while (pos < bytes.length) {
+			int eol = pos;
+			while (eol < bytes.length && bytes[eol] != '\n')
+				eol++;
+			int end = (eol > pos && bytes[eol - 1] == '\r') ? eol - 1 : eol;
+
+			if (end > pos)
+				lines.add(parser.apply(new String(bytes, pos, end - pos, StandardCharsets.UTF_8)));
+
+			pos = eol + 1;
+		}
+
+		return lines;
+	}
+
+	/**
+	 * @return the index of the first occurrence of b in [from, to) or -1 if b is not present
+	 */
+	private static int indexOf(ByteBuffer chunk, byte b, int from, int to) {
+		for (int i = from; i < to; i++)
+			if (chunk.get(i) == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return the int value of the bytes in [from, to)
+	 */
+	private static int parseInt(ByteBuffer chunk, int from, int to, String filename) {
+		// Skip surrounding whitespace
+		while (from < to && chunk.get(from) == ' ') from++;
+		while (to > from && chunk.get(to - 1) == ' ') to--;
+
+		boolean negative = from < to && chunk.get(from) == '-';
+		if (negative || (from < to && chunk.get(from) == '+'))
+			from++;
+		if (from == to || to - from > 10)
+			throw new NumberFormatException("Error reading from file \"" + filename + "\"");
+
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = chunk.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Error reading from file \"" + filename + "\"");
+			value = value * 10 + digit;
+		}
+		value = negative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new NumberFormatException("Error reading from file \"" + filename + "\"");
+		return (int)value;
+	}
+
+	/**
+	 * Parses a decimal number. Plain decimals with at most MAX_FAST_DIGITS
+	 * significant digits are converted as mantissa / 10^fractionDigits, which
+	 * is correctly rounded and so gives the same result as Double.valueOf.
+	 * Anything else (exponents, long mantissas) is delegated to Double.valueOf.
+	 * @return the double value of the bytes in [from, to)
+	 */
+	private static double parseDouble(ByteBuffer chunk, int from, int to) {
+		while (from < to && chunk.get(from) == ' ') from++;
+		while (to > from && chunk.get(to - 1) == ' ') to--;
+
+		int i = from;
+		boolean negative = i < to && chunk.get(i) == '-';
+		if (negative || (i < to && chunk.get(i) == '+'))
+			i++;
+
+		long mantissa = 0;
+		boolean anyDigits = false;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		boolean fast = i < to;
+		for (; i < to && fast; i++) {
+			byte c = chunk.get(i);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				anyDigits = true;
+				if (mantissa > 0)
+					digits++;
+				if (point)
+					fractionDigits++;
+			} else if (c == '.' && !point)
+				point = true;
+			else
+				fast = false;
+		}
+
+		if (fast && anyDigits && digits <= MAX_FAST_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			return negative ? -value : value;
+		}
+
+		// Fall back to the general-purpose parser
+		byte[] bytes = new byte[to - from];
+		ByteBuffer slice = chunk.duplicate();
+		slice.position(from);
+		slice.get(bytes);
+		return Double.valueOf(new String(bytes, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Runs the specified tasks in parallel.
+	 * @param tasks - the tasks
+	 * @return the results of the tasks, in task order
+	 * @throws IOException - if any task fails
+	 */
+	private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> f: ForkJoinPool.commonPool().invokeAll(tasks))
+				results.add(f.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException)cause).getCause();
+			throw new IOException(cause);
+		}
+		return results;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * A class to store the rows of a three-column numeric file (e.g.
+ * "movieId,tagId,score" or "userId,movieId,rating") in primitive arrays.
+ * Rows are kept in the order in which they appear in the file.
+ */
+
+package alg.cb.reader;
+
+import java.util.Arrays;
+
+class Triples {
+	int[] first; // the values in the first column
+	int[] second; // the values in the second column
+	double[] value; // the values in the third column
+	int size; // the number of rows stored
+
+	/**
+	 * constructor - creates a new Triples object
+	 * @param capacity - the initial capacity
+	 */
+	Triples(int capacity) {
+		capacity = Math.max(capacity, 16);
+		first = new int[capacity];
+		second = new int[capacity];
+		value = new double[capacity];
+		size = 0;
+	}
+
+	/**
+	 * adds a row
+	 * @param a - the value in the first column
+	 * @param b - the value in the second column
+	 * @param v - the value in the third column
+	 */
+	void add(int a, int b, double v) {
+		if (size == first.length) {
+			int capacity = first.length + (first.length >> 1);
+			first = Arrays.copyOf(first, capacity);
+			second = Arrays.copyOf(second, capacity);
+			value = Arrays.copyOf(value, capacity);
+		}
+		first[size] = a;
+		second[size] = b;
+		value[size] = v;
+		size++;
+	}
+
+	/**
+	 * @param index - the index of an integer column (0 or 1)
+	 * @return the values in the specified column
+	 */
+	int[] column(int index) {
+		return (index == 0) ? first : second;
+	}
+
+	/**
+	 * @param parts - the Triples objects to concatenate, in order
+	 * @return a single Triples object containing the rows of each part, in order
+	 */
+	static Triples concat(Triples[] parts) {
+		int total = 0;
+		for (Triples t: parts)
+			total += t.size;
+
+		Triples all = new Triples(total);
+		for (Triples t: parts) {
+			System.arraycopy(t.first, 0, all.first, all.size, t.size);
+			System.arraycopy(t.second, 0, all.second, all.size, t.size);
+			System.arraycopy(t.value, 0, all.value, all.size, t.size);
+			all.size += t.size;
+		}
+		return all;
+	}
+}
@@ -6,60 +6,77 @@
 package alg.cb.recommender;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import alg.cb.casebase.Casebase;
 import alg.cb.casebase.Movie;
-import alg.cb.similarity.ConfidenceSimilarity;
-import alg.cb.similarity.PopularitySimilarity;
-import alg.cb.similarity.SentimentSimilarity;
+import alg.cb.index.HnswIndex;
+import alg.cb.similarity.SimilarityMatrixBuilder;
 import alg.cb.similarity.SimilarityMetric;
-import alg.cb.util.Matrix;
+import alg.cb.util.ReadOnlyMatrix;
+import alg.cb.util.NeighbourHeap;
 import alg.cb.util.ScoredObjectDsc;
 
 public class Recommender {
 	private Casebase cb; // the casebase
-	private Matrix similarities; // a Matrix object to store the pairwise similarities between all movies
+	private ReadOnlyMatrix similarities; // the matrix which stores the pairwise similarities between all movies (keyed by movie ordinal)
+	private HnswIndex index; // the index used to find similar movies online (null if the similarities are precomputed)
+	private int numNeighbours; // the number of movies recommended when the index is used
 
 	/**
-	 * constructor - creates a new object
+	 * constructor - creates a new object; the similarities are calculated in 
+	 * parallel using all available processors
 	 * @param cb - the casebase
 	 * @param metric - the similarity metric
 	 */
 	public Recommender(Casebase cb, SimilarityMetric metric) {
+		this(cb, metric, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities 
+	 * (1 calculates them on the calling thread); the result is the same for any value
+	 */
+	public Recommender(Casebase cb, SimilarityMetric metric, int parallelism) {
+		this(cb, createBuilder(metric, parallelism));
+	}
+
+	/**
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param builder - the builder used to calculate the pairwise similarities between all movies
+	 */
+	public Recommender(Casebase cb, SimilarityMatrixBuilder builder) {
+		this(cb, builder.build(cb));
+	}
+
+	/**
+	 * constructor - creates a new object which uses precomputed similarities 
+	 * (e.g. the approximate neighbours found by an index in alg.cb.index)
+	 * @param cb - the casebase
+	 * @param similarities - the similarities between movies, keyed by movie ordinal
+	 */
+	public Recommender(Casebase cb, ReadOnlyMatrix similarities) {
 		this.cb = cb;
+		this.similarities = similarities;
+	}
 
-		// Calculate the pairwise similarities between all movies
-		similarities = new Matrix();
-
-		// Get all movies
-		Object[] movies = cb.getMovies().values().toArray();
-
-		// Calculate the pairwise similarities between all movies
-		for (int i = 0; i < movies.length; i++)
-			for (int j = i + 1; j < movies.length; j++) {
-				Movie m1 = (Movie)movies[i];
-				Movie m2 = (Movie)movies[j];
-
-				if (metric instanceof ConfidenceSimilarity || 
-						metric instanceof PopularitySimilarity ||
-						metric instanceof SentimentSimilarity) { // similarity is not symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if(sim > 0) similarities.addValue(m1.getId(), m2.getId(), sim);
-
-					sim = metric.calculateSimilarity(m2, m1);
-					if (sim > 0) similarities.addValue(m2.getId(), m1.getId(), sim);	
-				} else { // similarity is symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if(sim > 0) {
-						similarities.addValue(m1.getId(), m2.getId(), sim);
-						similarities.addValue(m2.getId(), m1.getId(), sim);		
-					} 
-				}
-			}
+	/**
+	 * constructor - creates a new object which finds the movies most similar 
+	 * to the target movie by querying an index, so that no similarity matrix 
+	 * is needed; movies added to the index (and casebase) later can be 
+	 * recommended immediately
+	 * @param cb - the casebase
+	 * @param index - the index
+	 * @param numNeighbours - the maximum number of movies recommended for each target movie
+	 */
+	public Recommender(Casebase cb, HnswIndex index, int numNeighbours) {
+		this.cb = cb;
+		this.index = index;
+		this.numNeighbours = numNeighbours;
 	}
 
 	/**
@@ -74,34 +91,56 @@ public class Recommender {
 	 * @return the ranked list of recommended movies
 	 */
 	public List<Movie> getRecommendations(Movie target) {
-		// Store all similarities in descending order in a sorted set
-		SortedSet<ScoredObjectDsc> ss = new TreeSet<>(); 
-
-		// Get all movies - each movie is a possible recommendation candidate
-		Object[] movies = cb.getMovies().values().toArray();
-
-		// Get the similarity between the target movie and each candidate movie
-		for (int i = 0; i < movies.length; i++) {
-			Movie candidate = (Movie)movies[i];
-
-			// Exclude the current candidate movie if it is the same as the target movie
-			if (target.getId() != candidate.getId()) { 
-				double sim = similarities.getValue(target.getId(), candidate.getId());
-
-				// If sim is greater than zero, add the current candidate to the set
-				if(sim > 0)
-					ss.add(new ScoredObjectDsc(sim, candidate)); 
-			}
-		}
+		return getRecommendations(target, Integer.MAX_VALUE);
+	}
 
-		// Sort the candidate movies by score (in descending order) and return as recommendations 
+	/**
+	 * returns the k movies most similar to the target movie; movies with 
+	 * equal similarity are ranked by ascending movie id
+	 * @param target - the target movie
+	 * @param k - the maximum number of recommendations
+	 * @return the ranked list of recommended movies
+	 */
+	public List<Movie> getRecommendations(Movie target, int k) {
 		List<Movie> recs = new ArrayList<>();
-
-		for(Iterator<ScoredObjectDsc> it = ss.iterator(); it.hasNext(); ) {
-			ScoredObjectDsc st = it.next();
-			recs.add((Movie)st.getObject());
+		if (k < 1)
+			return recs;
+
+		// Query the index if there is one; the neighbours are returned in descending 
+		// order of similarity (ties by ascending movie id)
+		if (index != null) {
+			for (ScoredObjectDsc st: index.search(target, Math.min(k, numNeighbours)))
+				recs.add((Movie)st.getObject());
+			return recs;
 		}
 
+		// Only the movies in the target's row of non-zero similarities are candidates
+		Movie[] movies = cb.getMovieArray();
+		int t = target.getOrdinal();
+
+		// Keep the k candidates with the highest similarity in a bounded heap of movie ids 
+		// (the row is visited once, so a lazily calculated row counts as one cache access)
+		NeighbourHeap heap = new NeighbourHeap(Math.min(k, movies.length));
+		similarities.forEachInRow(t, (i, sim) -> {
+			// Exclude the candidate movie if it is the same as the target movie
+			if (i != t && sim > 0)
+				heap.offer(movies[i].getId(), sim);
+		});
+
+		// Return the candidate movies ranked by score (in descending order)
+		for (int id: heap.getColsInRankOrder())
+			recs.add(cb.getMovie(id));
 		return recs;
 	}
+	
+	/**
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities
+	 * @return a builder for the specified metric and parallelism
+	 */
+	private static SimilarityMatrixBuilder createBuilder(SimilarityMetric metric, int parallelism) {
+		SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(metric);
+		builder.setParallelism(parallelism);
+		return builder;
+	}
 }
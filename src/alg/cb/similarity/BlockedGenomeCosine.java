@@ -0,0 +1,177 @@
+/**
+ * A class to calculate the genome cosine between many pairs of movies at 
+ * once, as the matrix product G * G^T of the dense genome vectors (see 
+ * Casebase.buildGenomeVectors), followed by division by the cached norms.
+ * 
+ * The product is computed in cache-sized tiles: a tile of TILE x TILE movie 
+ * pairs is accumulated over the tags in chunks of TAG_TILE, so that the 
+ * vectors of both movie groups stay in cache while they are reused, and 
+ * the inner loop updates a 2 x 2 block of pairs per tag. Each pair's dot 
+ * product is still summed in ascending tag order, so the similarities are 
+ * identical to those of GenomeCosineSimilarity with the scalar kernel. The 
+ * SIMD kernel sums in a different order (see GenomeKernel), so the engine 
+ * is not used while that kernel is loaded.
+ */
+
+package alg.cb.similarity;
+
+import java.util.Arrays;
+
+import alg.cb.casebase.Movie;
+
+class BlockedGenomeCosine {
+	private static final int TILE = 32; // the number of movies per tile side
+	private static final int TAG_TILE = 256; // the number of tags per chunk
+
+	private double[][] vectors; // the dense genome vector of each movie (null if none)
+	private double[] norms; // the L2 norm of each vector
+
+	/**
+	 * constructor - creates a new object
+	 * @param vectors - the dense genome vector of each movie (null if none)
+	 * @param norms - the L2 norm of each vector
+	 */
+	private BlockedGenomeCosine(double[][] vectors, double[] norms) {
+		this.vectors = vectors;
+		this.norms = norms;
+	}
+
+	/**
+	 * @param movies - the movies, indexed by ordinal
+	 * @return an object for the specified movies, or null if the dense genome 
+	 * vectors have not been built for every movie with genome scores or if 
+	 * GenomeCosineSimilarity does not use the scalar kernel
+	 */
+	static BlockedGenomeCosine create(Movie[] movies) {
+		if (!(GenomeCosineSimilarity.getKernel() instanceof ScalarGenomeKernel))
+			return null; // the tiles would not round as the metric does
+
+		double[][] vectors = new double[movies.length][];
+		double[] norms = new double[movies.length];
+		int length = -1;
+		for (int i = 0; i < movies.length; i++) {
+			double[] v = movies[i].getGenomeVector();
+			if (v == null) {
+				if (movies[i].getGenomeScores() != null)
+					return null; // the vectors are out of date
+				continue;
+			}
+			if (length >= 0 && v.length != length)
+				return null;
+			length = v.length;
+			vectors[i] = v;
+			norms[i] = movies[i].getGenomeNorm();
+		}
+		return new BlockedGenomeCosine(vectors, norms);
+	}
+
+	/**
+	 * calculates the similarities for the pairs (i, j) with i in 
+	 * [rowFrom, rowTo), j in [colFrom, colTo) and i < j, and passes the 
+	 * non-zero similarities to the task in both directions
+	 * @param task - the task which receives the similarities
+	 */
+	void computeBlock(int rowFrom, int rowTo, int colFrom, int colTo, PairwiseSimilarityTask task) {
+		double[] acc = new double[TILE * TILE]; // the dot products of the current tile
+
+		for (int i0 = rowFrom; i0 < rowTo; i0 += TILE) {
+			int i1 = Math.min(i0 + TILE, rowTo);
+			for (int j0 = colFrom; j0 < colTo; j0 += TILE) {
+				int j1 = Math.min(j0 + TILE, colTo);
+				if (j1 - 1 <= i0)
+					continue; // no pair with i < j in this tile
+
+				Arrays.fill(acc, 0);
+				multiplyTile(i0, i1, j0, j1, acc);
+
+				for (int i = i0; i < i1; i++)
+					for (int j = Math.max(j0, i + 1); j < j1; j++) {
+						// Return zero if either movie has no genome scores or division by zero occurs
+						if (vectors[i] == null || vectors[j] == null || norms[i] == 0 || norms[j] == 0)
+							continue;
+						double sim = acc[(i - i0) * TILE + (j - j0)] / (norms[i] * norms[j]);
+						task.add(i, j, sim);
+						task.add(j, i, sim);
+					}
+			}
+		}
+	}
+
+	/**
+	 * accumulates the dot products of the movies in [i0, i1) with the movies 
+	 * in [j0, j1) into acc (row-major, TILE columns)
+	 */
+	private void multiplyTile(int i0, int i1, int j0, int j1, double[] acc) {
+		int length = -1;
+		for (int i = i0; i < i1 && length < 0; i++)
+			if (vectors[i] != null) length = vectors[i].length;
+		if (length < 0)
+			return;
+
+		for (int k0 = 0; k0 < length; k0 += TAG_TILE) {
+			int k1 = Math.min(k0 + TAG_TILE, length);
+
+			// Process the pairs in 2 x 2 blocks; at an odd edge the last row or 
+			// column is paired with itself, which recomputes the same value
+			for (int i = i0; i < i1; i += 2) {
+				int ib = Math.min(i + 1, i1 - 1);
+				double[] a0 = vectors[i], a1 = vectors[ib];
+				if (a0 == null || a1 == null) {
+					// Vectors are missing (e.g. a movie without genome scores): fall back to one row at a time
+					multiplyRow(i, j0, j1, k0, k1, acc, i0, j0);
+					if (ib != i) multiplyRow(ib, j0, j1, k0, k1, acc, i0, j0);
+					continue;
+				}
+
+				for (int j = j0; j < j1; j += 2) {
+					int jb = Math.min(j + 1, j1 - 1);
+					double[] b0 = vectors[j], b1 = vectors[jb];
+					if (b0 == null || b1 == null) {
+						// Vectors are missing: fall back to one pair at a time
+						for (int ii = i; ii <= ib; ii++)
+							for (int jj = j; jj <= jb; jj++)
+								multiplyPair(ii, jj, k0, k1, acc, i0, j0);
+						continue;
+					}
+
+					int p00 = (i - i0) * TILE + (j - j0), p01 = (i - i0) * TILE + (jb - j0);
+					int p10 = (ib - i0) * TILE + (j - j0), p11 = (ib - i0) * TILE + (jb - j0);
+					double s00 = acc[p00], s01 = acc[p01], s10 = acc[p10], s11 = acc[p11];
+					for (int k = k0; k < k1; k++) {
+						double x0 = a0[k], x1 = a1[k], y0 = b0[k], y1 = b1[k];
+						s00 += x0 * y0;
+						s01 += x0 * y1;
+						s10 += x1 * y0;
+						s11 += x1 * y1;
+					}
+					acc[p00] = s00; acc[p01] = s01; acc[p10] = s10; acc[p11] = s11;
+				}
+			}
+		}
+	}
+
+	/**
+	 * accumulates the dot products of movie i with the movies in [j0, j1) 
+	 * over the tags in [k0, k1)
+	 */
+	private void multiplyRow(int i, int j0, int j1, int k0, int k1, double[] acc, int tileRow, int tileCol) {
+		for (int j = j0; j < j1; j++)
+			multiplyPair(i, j, k0, k1, acc, tileRow, tileCol);
+	}
+
+	/**
+	 * accumulates the dot product of movies i and j over the tags in [k0, k1)
+	 */
+	private void multiplyPair(int i, int j, int k0, int k1, double[] acc, int tileRow, int tileCol) {
+		double[] a = vectors[i];
+		double[] b = vectors[j];
+		if (a == null || b == null)
+			return;
+
+		int p = (i - tileRow) * TILE + (j - tileCol);
+		double s = acc[p];
+		for (int k = k0; k < k1; k++)
+			s += a[k] * b[k];
+		acc[p] = s;
+	}
+}
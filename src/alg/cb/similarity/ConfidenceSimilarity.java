@@ -5,9 +5,10 @@
 
 package alg.cb.similarity;
 
-import java.util.Map;
+import java.util.Arrays;
 
 import alg.cb.casebase.Movie;
+import alg.cb.util.SparseVectors;
 
 public class ConfidenceSimilarity implements SimilarityMetric {	
 	private double threshold; // movies with ratings >= threshold are considered liked by users
@@ -20,6 +21,13 @@ public class ConfidenceSimilarity implements SimilarityMetric {
 		this.threshold = threshold;
 	}
 
+	/**
+	 * @return the rating threshold for liked movies
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
 	/**
 	 * computes the similarity between two movies
 	 * @param m1 - the first movie
@@ -28,29 +36,64 @@ public class ConfidenceSimilarity implements SimilarityMetric {
 	 */
 	@Override
 	public double calculateSimilarity(Movie m1, Movie m2) {		
-		// Get the ratings for each movie
-		Map<Integer,Double> r1 = m1.getRatings();
-		Map<Integer,Double> r2 = m2.getRatings();
-
 		// Return zero if either movie has no ratings
-		if (r1 == null || r2 == null) 
+		if (m1.getRatings() == null || m2.getRatings() == null) 
 			return 0;
 
-		// Calculate the support of m1
-		int suppM1 = 0;
-		for (int id: r1.keySet())
-			if (r1.get(id) >= threshold)
-				suppM1++;
-
-		// Calculate the support of (m1 and m2)
-		int suppM1andM2 = 0;
-		for(int id: r1.keySet()) 
-			if (r2.containsKey(id)) {
-				if (r1.get(id) >= threshold && r2.get(id) >= threshold)
-					suppM1andM2++;		
-			}
+		// Get the support of m1 (cached by the movie)
+		int suppM1 = m1.getLikedCount(threshold);
+
+		// Calculate the support of (m1 and m2) by merge join over the sorted user ids
+		int suppM1andM2 = (suppM1 > 0) ? SparseVectors.countCommonAtLeast(m1.getRatingUserIds(), m1.getRatingValues(), 
+				m2.getRatingUserIds(), m2.getRatingValues(), threshold) : 0;
 		
 		// Return zero if division by zero occurs
 		return (suppM1 > 0) ? suppM1andM2 * 1.0 / suppM1 : 0;
 	}
+
+	/**
+	 * computes confidence(target => candidate) for each of a range of 
+	 * candidate movies by intersecting the target's liked users (cached by 
+	 * the movie for the threshold) with the ratings of each candidate
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		int suppM1 = (target.getRatings() != null) ? target.getLikedCount(threshold) : 0;
+		
+		// Return zero for all candidates if the target has no ratings or no support
+		if (suppM1 == 0) {
+			Arrays.fill(out, 0, to - from, 0);
+			return;
+		}
+		
+		// Get the users who liked the target (cached by the movie)
+		Movie.LikedUsers liked = target.getLikedUsers(threshold);
+		int[] likedIds = liked.getIds();
+		float[] likedValues = liked.getValues();
+		
+		for (int i = from; i < to; i++) {
+			Movie m2 = candidates[i];
+			if (m2.getRatings() == null) {
+				out[i - from] = 0;
+				continue;
+			}
+			
+			int suppM1andM2 = SparseVectors.countCommonAtLeast(likedIds, likedValues, 
+					m2.getRatingUserIds(), m2.getRatingValues(), threshold);
+			out[i - from] = suppM1andM2 * 1.0 / suppM1;
+		}
+	}
+
+	/**
+	 * @return false - confidence(m1 => m2) != confidence(m2 => m1)
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
+	}
 }
@@ -1,15 +1,31 @@
 /**
  * A class to compute the similarity between two movies. Similarity is given
  * by the cosine calculated over the movies' genome scores vectors.
+ * 
+ * If both movies have dense genome vectors (see Casebase.buildGenomeVectors),
+ * the cosine is calculated in a single pass over the vectors using the 
+ * cached norms; otherwise the genome score maps are used. The dot product 
+ * of the dense vectors uses a SIMD kernel when the jdk.incubator.vector 
+ * module is available (see GenomeKernel).
+ * 
+ * The cosine is linear in each movie's normalised vector, so the sum of a 
+ * candidate's similarities to a set of target movies is the dot product of 
+ * the candidate's normalised vector with the sum of the targets' normalised 
+ * vectors (see LinearSimilarityMetric).
  */
 
 package alg.cb.similarity;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import alg.cb.casebase.Movie;
 
-public class GenomeCosineSimilarity implements SimilarityMetric {	
+public class GenomeCosineSimilarity implements LinearSimilarityMetric {	
+	private static final GenomeKernel KERNEL = GenomeKernel.load(); // the dot product kernel for dense vectors
+
 	/**
 	 * constructor - creates a new object
 	 */
@@ -24,7 +40,20 @@ public class GenomeCosineSimilarity implements SimilarityMetric {
 	 */
 	@Override
 	public double calculateSimilarity(Movie m1, Movie m2) {		
-		// Get the genome scores for each movie
+		// Use the dense genome vectors and cached norms if available
+		double[] v1 = m1.getGenomeVector();
+		double[] v2 = m2.getGenomeVector();
+		if (v1 != null && v2 != null && v1.length == v2.length) {
+			double product = KERNEL.dot(v1, v2);
+			
+			double length1 = m1.getGenomeNorm();
+			double length2 = m2.getGenomeNorm();
+			
+			// Return zero if division by zero occurs
+			return (length1 > 0 && length2 > 0) ? product / (length1 * length2) : 0;
+		}
+		
+		// Otherwise, get the genome scores for each movie
 		Map<Integer,Double> r1 = m1.getGenomeScores();
 		Map<Integer,Double> r2 = m2.getGenomeScores();
 
@@ -50,4 +79,110 @@ public class GenomeCosineSimilarity implements SimilarityMetric {
 		// Return zero if division by zero occurs
 		return (length1 > 0 && length2 > 0) ? product / (length1 * length2) : 0;		
 	}
+
+	/**
+	 * computes the genome cosine between a target movie and each of a range 
+	 * of candidate movies, reading the target's dense vector and norm once; 
+	 * candidates without a dense vector use the genome score maps
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		double[] v1 = target.getGenomeVector();
+		if (v1 == null) {
+			LinearSimilarityMetric.super.calculateSimilarities(target, candidates, from, to, out);
+			return;
+		}
+		
+		double length1 = target.getGenomeNorm();
+		for (int i = from; i < to; i++) {
+			Movie m2 = candidates[i];
+			double[] v2 = m2.getGenomeVector();
+			if (v2 == null || v2.length != v1.length) {
+				out[i - from] = calculateSimilarity(target, m2);
+				continue;
+			}
+			
+			double product = KERNEL.dot(v1, v2);
+			double length2 = m2.getGenomeNorm();
+			out[i - from] = (length1 > 0 && length2 > 0) ? product / (length1 * length2) : 0;
+		}
+	}
+
+	/**
+	 * computes, for each candidate movie, the sum of its similarities to the 
+	 * target movies from the sum of the targets' normalised dense vectors 
+	 * (one dot product per candidate); targets and candidates without a dense 
+	 * vector are compared pair by pair
+	 * @param targets - the target movies
+	 * @param candidates - the candidate movies
+	 * @param out - the array which receives the sums (out[i] for candidates[i])
+	 */
+	@Override
+	public void calculateProfileSimilarities(Collection<Movie> targets, Movie[] candidates, double[] out) {
+		// Sum the normalised vectors of the targets
+		double[] profile = null;
+		List<Movie> profiled = new ArrayList<>(); // the targets included in the profile
+		List<Movie> others = new ArrayList<>(); // the targets with genome scores but no usable dense vector
+		for (Movie target: targets) {
+			double[] v1 = target.getGenomeVector();
+			if (v1 != null && profile == null)
+				profile = new double[v1.length];
+			
+			if (v1 != null && v1.length == profile.length) {
+				double length1 = target.getGenomeNorm();
+				if (length1 > 0) {
+					for (int d = 0; d < v1.length; d++)
+						profile[d] += v1[d] / length1;
+					profiled.add(target);
+				}
+			} else if (target.getGenomeScores() != null)
+				others.add(target);
+		}
+		
+		for (int i = 0; i < candidates.length; i++) {
+			Movie m2 = candidates[i];
+			double[] v2 = m2.getGenomeVector();
+			double sum = 0;
+			if (profile != null && v2 != null && v2.length == profile.length) {
+				double length2 = m2.getGenomeNorm();
+				if (length2 > 0)
+					sum = KERNEL.dot(profile, v2) / length2;
+			} else {
+				// Compare the candidate with each target in the profile
+				for (Movie target: profiled)
+					sum += calculateSimilarity(target, m2);
+			}
+			
+			for (Movie target: others)
+				sum += calculateSimilarity(target, m2);
+			out[i] = sum;
+		}
+	}
+
+	/**
+	 * @return the kernel used for the dense genome vectors
+	 */
+	static GenomeKernel getKernel() {
+		return KERNEL;
+	}
+
+	/**
+	 * @return the name of the kernel used for the dense genome vectors ("scalar" or "vector-api")
+	 */
+	public static String getKernelName() {
+		return KERNEL.getName();
+	}
+
+	/**
+	 * @return true - cosine is symmetric
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
 }
@@ -0,0 +1,49 @@
+/**
+ * An interface to calculate the dot product of two dense genome vectors 
+ * (see Casebase.buildGenomeVectors), used by GenomeCosineSimilarity.
+ * 
+ * Two kernels are provided: ScalarGenomeKernel, which is always available, 
+ * and VectorApiGenomeKernel (in the src-vector source folder), which uses 
+ * the SIMD instructions of the jdk.incubator.vector module. The SIMD kernel 
+ * is used if its class is on the classpath and the module has been added 
+ * to the JVM (--add-modules jdk.incubator.vector); otherwise the scalar 
+ * kernel is used. Setting the system property "genome.kernel" to "scalar" 
+ * forces the scalar kernel.
+ * 
+ * The SIMD kernel sums the products in a different order (one partial sum 
+ * per lane, fused multiply-add), so its result may differ from the scalar 
+ * kernel's by rounding. For non-negative vectors such as genome scores, the 
+ * relative difference is bounded by about n * 2^-53 for vectors of length n 
+ * (below 1e-12 for the 1128 genome tags).
+ */
+
+package alg.cb.similarity;
+
+interface GenomeKernel {
+	/**
+	 * @param v1 - the first vector
+	 * @param v2 - the second vector (same length as v1)
+	 * @return the dot product of the vectors
+	 */
+	public abstract double dot(double[] v1, double[] v2);
+	
+	/**
+	 * @return the name of the kernel
+	 */
+	public abstract String getName();
+	
+	/**
+	 * @return the SIMD kernel if it is available and not disabled, otherwise the scalar kernel
+	 */
+	public static GenomeKernel load() {
+		if (!"scalar".equals(System.getProperty("genome.kernel"))) {
+			try {
+				Class<?> c = Class.forName("alg.cb.similarity.VectorApiGenomeKernel");
+				return (GenomeKernel)c.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// The class or the jdk.incubator.vector module is not available
+			}
+		}
+		return new ScalarGenomeKernel();
+	}
+}
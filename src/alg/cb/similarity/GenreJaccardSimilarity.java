@@ -2,6 +2,9 @@
  * A class to compute the similarity between two movies. Similarity is given 
  * by the Jaccard index calculated over the movies' genres. If there are no 
  * common genres between the movies, a similarity value of zero is returned.
+ * 
+ * If both movies have genre bitmasks (see Casebase.buildGenreMasks), the 
+ * intersection and union are counted with Long.bitCount.
  */
 
 package alg.cb.similarity;
@@ -25,7 +28,18 @@ public class GenreJaccardSimilarity implements SimilarityMetric {
 	 */
 	@Override
 	public double calculateSimilarity(Movie m1, Movie m2) {		
-		// Get the genres for each movie
+		// Use the genre bitmasks if available
+		if (m1.hasGenreMask() && m2.hasGenreMask()) {
+			long g1 = m1.getGenreMask();
+			long g2 = m2.getGenreMask();
+			int intersection = Long.bitCount(g1 & g2);
+			int union = Long.bitCount(g1 | g2);
+			
+			// Return zero if division by zero occurs
+			return (union > 0) ? intersection * 1.0 / union : 0;
+		}
+		
+		// Otherwise, get the genres for each movie
 		Set<String> s1 = m1.getGenres();
 		Set<String> s2 = m2.getGenres();
 		
@@ -41,4 +55,43 @@ public class GenreJaccardSimilarity implements SimilarityMetric {
 		// Return zero if division by zero occurs
 		return (union > 0) ? intersection * 1.0 / union : 0;
 	}
+
+	/**
+	 * computes the Jaccard index of the genres of a target movie and of each 
+	 * of a range of candidate movies from the genre bitmasks (the genre sets 
+	 * are used for movies without a bitmask)
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		if (!target.hasGenreMask()) {
+			SimilarityMetric.super.calculateSimilarities(target, candidates, from, to, out);
+			return;
+		}
+		
+		long g1 = target.getGenreMask();
+		for (int i = from; i < to; i++) {
+			Movie m2 = candidates[i];
+			if (!m2.hasGenreMask()) {
+				out[i - from] = calculateSimilarity(target, m2);
+				continue;
+			}
+			
+			long g2 = m2.getGenreMask();
+			int union = Long.bitCount(g1 | g2);
+			out[i - from] = (union > 0) ? Long.bitCount(g1 & g2) * 1.0 / union : 0;
+		}
+	}
+
+	/**
+	 * @return true - the Jaccard index is symmetric
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
 }
@@ -0,0 +1,281 @@
+/**
+ * A similarity matrix whose rows are calculated on demand: the row of a 
+ * movie (its similarity to every other movie in the casebase) is calculated 
+ * the first time it is requested, so no work is done for movies which are 
+ * never queried.
+ * 
+ * Rows are kept in a least-recently-used cache of bounded size; the least 
+ * recently used row is evicted when the cache is full. Requests for a row 
+ * which is being calculated by another thread wait for that calculation 
+ * rather than repeating it, so each row is calculated once per cache 
+ * residence. Hit, miss and eviction counts are kept for monitoring.
+ * 
+ * The matrix is keyed by movie ordinal and holds the same values as the 
+ * matrix built eagerly by SimilarityMatrixBuilder with the same settings 
+ * (including the maximum number of neighbours, if set).
+ */
+
+package alg.cb.similarity;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import alg.cb.casebase.Movie;
+import alg.cb.util.IntDoubleConsumer;
+import alg.cb.util.NeighbourHeap;
+import alg.cb.util.ReadOnlyMatrix;
+import alg.cb.util.SparseVectors;
+
+public class LazySimilarityMatrix implements ReadOnlyMatrix {
+	private Movie[] movies; // the movies, indexed by ordinal
+	private SimilarityMetric metric; // the similarity metric
+	private int maxNeighbours; // the number of neighbours kept per row (0 keeps all)
+	private int maxRows; // the maximum number of rows in the cache
+
+	private LinkedHashMap<Integer,Row> cache; // the cached rows, in access order (guarded by itself)
+	private ConcurrentHashMap<Integer,CompletableFuture<Row>> pending; // the rows being calculated
+	private long hits; // the number of requests answered from the cache
+	private long misses; // the number of requests not answered from the cache
+	private long evictions; // the number of rows evicted from the cache
+	private long calculations; // the number of rows calculated
+
+	/**
+	 * constructor - creates a new, empty matrix (see SimilarityMatrixBuilder.buildLazy)
+	 * @param movies - the movies, indexed by ordinal
+	 * @param metric - the similarity metric (must be safe to call from several threads if the matrix is shared)
+	 * @param maxNeighbours - the number of most similar movies to keep in each row (0 keeps all)
+	 * @param maxRows - the maximum number of rows in the cache
+	 */
+	LazySimilarityMatrix(Movie[] movies, SimilarityMetric metric, int maxNeighbours, int maxRows) {
+		if (maxRows < 1)
+			throw new IllegalArgumentException("maxRows must be at least 1");
+
+		this.movies = movies;
+		this.metric = metric;
+		this.maxNeighbours = maxNeighbours;
+		this.maxRows = maxRows;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true);
+		this.pending = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param row - the row id
+	 * @param col - the column id
+	 * @return the value corresponding to (row, col) or 0 if the element is not present in the matrix
+	 */
+	@Override
+	public double getValue(int row, int col) {
+		Row r = getCachedRow(row);
+		if (r == null)
+			return 0;
+		int i = Arrays.binarySearch(r.cols, col);
+		return (i >= 0) ? r.values[i] : 0;
+	}
+
+	/**
+	 * @return the ids of all rows (one per movie; rows are not calculated)
+	 */
+	@Override
+	public Set<Integer> getRowIds() {
+		Set<Integer> ids = new HashSet<>();
+		for (int i = 0; i < movies.length; i++)
+			ids.add(i);
+		return ids;
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the number of elements in the specified row
+	 */
+	@Override
+	public int getRowSize(int row) {
+		Row r = getCachedRow(row);
+		return (r != null) ? r.cols.length : 0;
+	}
+
+	/**
+	 * performs the specified action for each element in the specified row, 
+	 * in ascending order of column id
+	 * @param row - the row id
+	 * @param action - the action, which receives the column id and value of each element
+	 */
+	@Override
+	public void forEachInRow(int row, IntDoubleConsumer action) {
+		Row r = getCachedRow(row);
+		if (r != null)
+			for (int i = 0; i < r.cols.length; i++)
+				action.accept(r.cols[i], r.values[i]);
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the mean of the values in the specified row or 0 if the row is empty
+	 */
+	@Override
+	public double getRowMean(int row) {
+		Row r = getCachedRow(row);
+		if (r == null || r.cols.length == 0)
+			return 0;
+
+		double sum = 0;
+		for (double value: r.values)
+			sum += value;
+		return sum / r.cols.length;
+	}
+
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of requests not answered from the cache (including 
+	 * requests which waited for a row being calculated by another thread)
+	 */
+	public long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return the number of rows evicted from the cache
+	 */
+	public long getEvictions() {
+		synchronized (cache) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * @return the number of rows calculated
+	 */
+	public long getCalculations() {
+		synchronized (cache) {
+			return calculations;
+		}
+	}
+
+	/**
+	 * @return the number of rows in the cache
+	 */
+	public int getCachedRows() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * returns a row from the cache, calculating it if necessary
+	 * @param row - the row id
+	 * @return the row, or null if the row id is out of range
+	 */
+	private Row getCachedRow(int row) {
+		if (row < 0 || row >= movies.length)
+			return null;
+
+		synchronized (cache) {
+			Row r = cache.get(row);
+			if (r != null) {
+				hits++;
+				return r;
+			}
+			misses++;
+		}
+
+		// Wait for the row if another thread is calculating it
+		CompletableFuture<Row> future = new CompletableFuture<>();
+		CompletableFuture<Row> existing = pending.putIfAbsent(row, future);
+		if (existing != null)
+			return existing.join();
+
+		try {
+			// The row may have been cached since it was looked up
+			Row r;
+			synchronized (cache) {
+				r = cache.get(row);
+			}
+			if (r == null) {
+				r = calculateRow(row);
+				synchronized (cache) {
+					calculations++;
+					cache.put(row, r);
+					if (cache.size() > maxRows) {
+						Integer eldest = cache.keySet().iterator().next();
+						cache.remove(eldest);
+						evictions++;
+					}
+				}
+			}
+			future.complete(r);
+			return r;
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			pending.remove(row);
+		}
+	}
+
+	/**
+	 * calculates a row using the metric's batch method
+	 * @param row - the row id
+	 * @return the row
+	 */
+	private Row calculateRow(int row) {
+		double[] sims = new double[movies.length];
+		metric.calculateSimilarities(movies[row], movies, sims);
+
+		int[] cols = new int[movies.length];
+		double[] values = new double[movies.length];
+		int size = 0;
+		NeighbourHeap heap = (maxNeighbours > 0) ? new NeighbourHeap(maxNeighbours) : null;
+		for (int j = 0; j < movies.length; j++) {
+			if (j == row || sims[j] <= 0)
+				continue;
+
+			if (heap != null)
+				heap.offer(j, sims[j]);
+			else {
+				cols[size] = j;
+				values[size++] = sims[j];
+			}
+		}
+
+		if (heap != null) {
+			// Sort the kept neighbours by column id
+			int[] heapCols = heap.getCols();
+			double[] heapValues = heap.getValues();
+			int[] order = SparseVectors.getSortedOrder(heapCols, 0, heapCols.length);
+			cols = new int[order.length];
+			values = new double[order.length];
+			for (int i = 0; i < order.length; i++) {
+				cols[i] = heapCols[order[i]];
+				values[i] = heapValues[order[i]];
+			}
+			return new Row(cols, values);
+		}
+		return new Row(Arrays.copyOf(cols, size), Arrays.copyOf(values, size));
+	}
+
+	/**
+	 * A calculated row, with column ids in ascending order
+	 */
+	private static class Row {
+		int[] cols; // the column ids, in ascending order
+		double[] values; // the values
+
+		Row(int[] cols, double[] values) {
+			this.cols = cols;
+			this.values = values;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * An interface for similarity metrics in which the similarity to a candidate
+ * movie is a linear function of the candidate (e.g. the cosine, which is the
+ * dot product of the normalised vectors). The sum of a candidate's
+ * similarities to a set of target movies can then be calculated from a
+ * single profile vector (e.g. the sum of the targets' normalised vectors)
+ * with one dot product per candidate, whatever the number of targets.
+ *
+ * Only similarities greater than zero are stored by SimilarityMatrixBuilder,
+ * so implementations should only be used where the similarities are not
+ * negative (e.g. genome relevance scores, which lie in [0, 1]).
+ */
+
+package alg.cb.similarity;
+
+import java.util.Collection;
+
+import alg.cb.casebase.Movie;
+
+public interface LinearSimilarityMetric extends SimilarityMetric {
+	/**
+	 * computes, for each candidate movie, the sum of its similarities to the
+	 * target movies, i.e. out[i] = the sum over the targets of
+	 * calculateSimilarity(target, candidates[i]); the results are the same
+	 * as those of calculateSimilarity up to rounding
+	 * @param targets - the target movies
+	 * @param candidates - the candidate movies
+	 * @param out - the array which receives the sums (at least candidates.length elements)
+	 */
+	public abstract void calculateProfileSimilarities(Collection<Movie> targets, Movie[] candidates, double[] out);
+}
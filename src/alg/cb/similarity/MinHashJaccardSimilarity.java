@@ -0,0 +1,191 @@
+/**
+ * A class to compute the similarity between two movies. Similarity is given 
+ * by an estimate of the Jaccard index over the sets of users who liked each 
+ * movie (ratings >= threshold, as in ConfidenceSimilarity).
+ * 
+ * Each movie in the casebase is given a MinHash signature of h values when 
+ * the metric is created: value i is the minimum of hash function i over the 
+ * movie's liked users. Two movies agree on value i with probability equal 
+ * to the Jaccard index of their sets, so the fraction of agreeing values is 
+ * an unbiased estimate with standard error sqrt(J * (1 - J) / h), which is 
+ * at most 1 / (2 * sqrt(h)); e.g. h = 128 gives a standard error of at 
+ * most 0.044 and h = 512 at most 0.022. Comparing two signatures costs 
+ * O(h), independent of the number of ratings.
+ * 
+ * The signatures are keyed by movie ordinal, so the metric only applies to 
+ * the movies of the casebase for which it was created; see MinHashIndex 
+ * for finding candidate pairs without comparing all signatures.
+ */
+
+package alg.cb.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+
+public class MinHashJaccardSimilarity implements SimilarityMetric {
+	private double threshold; // movies with ratings >= threshold are considered liked by users
+	private int numHashes; // the signature length (h)
+	private long[] hashSeeds; // the seed of each hash function
+	private int[] signatures; // the signature of each movie (numHashes values per movie ordinal)
+	private boolean[] hasSignature; // true for each movie which is liked by at least one user
+
+	/**
+	 * constructor - creates a new object and calculates the signatures of all 
+	 * movies in the casebase
+	 * @param cb - the casebase
+	 * @param threshold - the rating threshold for liked movies
+	 * @param numHashes - the signature length; larger values reduce the estimate error
+	 * @param seed - the seed used to draw the hash functions
+	 */
+	public MinHashJaccardSimilarity(Casebase cb, double threshold, int numHashes, long seed) {
+		if (numHashes < 1)
+			throw new IllegalArgumentException("numHashes must be at least 1");
+
+		this.threshold = threshold;
+		this.numHashes = numHashes;
+
+		Random random = new Random(seed);
+		hashSeeds = new long[numHashes];
+		for (int i = 0; i < numHashes; i++)
+			hashSeeds[i] = random.nextLong();
+
+		Movie[] movies = cb.getMovieArray();
+		signatures = new int[movies.length * numHashes];
+		hasSignature = new boolean[movies.length];
+		for (int m = 0; m < movies.length; m++)
+			computeSignature(movies[m], m * numHashes);
+	}
+
+	/**
+	 * @return the rating threshold for liked movies
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @return the signature length
+	 */
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * @param ordinal - the ordinal of a movie
+	 * @return true if the movie has a signature (i.e. is liked by at least one user)
+	 */
+	public boolean hasSignature(int ordinal) {
+		return ordinal >= 0 && ordinal < hasSignature.length && hasSignature[ordinal];
+	}
+
+	/**
+	 * @param ordinal - the ordinal of a movie
+	 * @param i - the index of a signature value
+	 * @return value i of the movie's signature
+	 */
+	public int getSignatureValue(int ordinal, int i) {
+		return signatures[ordinal * numHashes + i];
+	}
+
+	/**
+	 * computes the similarity between two movies
+	 * @param m1 - the first movie
+	 * @param m2 - the second movie
+	 * @return the similarity
+	 */
+	@Override
+	public double calculateSimilarity(Movie m1, Movie m2) {
+		int o1 = m1.getOrdinal();
+		int o2 = m2.getOrdinal();
+
+		// Return zero if either movie is not liked by any user
+		if (!hasSignature(o1) || !hasSignature(o2))
+			return 0;
+
+		// Count the agreeing signature values
+		int agree = 0;
+		for (int i = 0, p1 = o1 * numHashes, p2 = o2 * numHashes; i < numHashes; i++)
+			if (signatures[p1 + i] == signatures[p2 + i])
+				agree++;
+		return agree * 1.0 / numHashes;
+	}
+
+	/**
+	 * computes the estimated Jaccard index between a target movie and each 
+	 * of a range of candidate movies by comparing the target's MinHash 
+	 * signature with each candidate's
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		int o1 = target.getOrdinal();
+		if (!hasSignature(o1)) {
+			Arrays.fill(out, 0, to - from, 0);
+			return;
+		}
+		
+		int p1 = o1 * numHashes;
+		for (int i = from; i < to; i++) {
+			int o2 = candidates[i].getOrdinal();
+			if (!hasSignature(o2)) {
+				out[i - from] = 0;
+				continue;
+			}
+			
+			int agree = 0;
+			for (int k = 0, p2 = o2 * numHashes; k < numHashes; k++)
+				if (signatures[p1 + k] == signatures[p2 + k])
+					agree++;
+			out[i - from] = agree * 1.0 / numHashes;
+		}
+	}
+
+	/**
+	 * @return true - the Jaccard index is symmetric
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
+
+	/**
+	 * calculates the signature of a movie
+	 * @param m - the movie
+	 * @param offset - the position of the signature in the signatures array
+	 */
+	private void computeSignature(Movie m, int offset) {
+		for (int i = 0; i < numHashes; i++)
+			signatures[offset + i] = Integer.MAX_VALUE;
+
+		int[] userIds = m.getRatingUserIds();
+		float[] values = m.getRatingValues();
+		for (int k = 0; k < userIds.length; k++) {
+			if (values[k] < threshold)
+				continue;
+			hasSignature[m.getOrdinal()] = true;
+			for (int i = 0; i < numHashes; i++) {
+				int h = hash(userIds[k], hashSeeds[i]);
+				if (h < signatures[offset + i])
+					signatures[offset + i] = h;
+			}
+		}
+	}
+
+	/**
+	 * @return a non-negative hash of a user id (the SplitMix64 finaliser applied to the id and seed)
+	 */
+	private static int hash(int userId, long seed) {
+		long z = userId * 0x9E3779B97F4A7C15L + seed;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (int)(z >>> 33);
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * A fork-join task to calculate the pairwise similarities between all movies
+ * (see SimilarityMatrixBuilder).
+ *
+ * The pairs (i, j) with i < j form a triangle which is split into square
+ * blocks of movies; each block is computed by one task into its own buffer,
+ * so no locking is needed. Each task scores one movie against a range of
+ * movies at a time (see SimilarityMetric.calculateSimilarities). The
+ * buffers are then merged into a CsrMatrix keyed by movie ordinal. Each
+ * pair is calculated exactly as the sequential build does, so the result
+ * does not depend on the parallelism level.
+ *
+ * If a maximum number of neighbours K is set, each task instead keeps the K
+ * best similarities of each of its rows in bounded heaps, which are merged
+ * into one shared heap per row when the task finishes. Memory is then
+ * O(n * K) rather than O(n^2).
+ *
+ * For the genome cosine with the scalar kernel, each block is computed as a
+ * tile of the matrix product G * G^T (see BlockedGenomeCosine) rather than
+ * pair by pair.
+ */
+
+package alg.cb.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import alg.cb.casebase.Movie;
+import alg.cb.util.CsrMatrix;
+import alg.cb.util.NeighbourHeap;
+import alg.cb.util.PairBuffer;
+
+class PairwiseSimilarityTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private static final int BLOCKS_PER_THREAD = 8; // the number of row blocks per thread (for load balancing)
+	private static final int MIN_BLOCK_SIZE = 16; // the minimum number of movies in a block
+	private static final int MIN_GENOME_BLOCK_SIZE = 64; // the minimum number of movies in a block of G * G^T
+
+	private Movie[] movies; // the movies, indexed by ordinal
+	private SimilarityMetric metric; // the similarity metric
+	private boolean symmetric; // true if sim(m1, m2) = sim(m2, m1)
+	private int rowFrom, rowTo; // the first block of movies
+	private int colFrom, colTo; // the second block of movies
+	private int maxNeighbours; // the number of neighbours to keep per movie (0 keeps all)
+	private NeighbourHeap[] neighbours; // the shared heap of each movie (if maxNeighbours > 0)
+	private NeighbourHeap[] rowHeaps, colHeaps; // the local heaps of each block while the task runs
+	private BlockedGenomeCosine genome; // the genome cosine engine, or null to use the metric
+	private PairBuffer result; // the non-zero similarities calculated by this task (if maxNeighbours = 0)
+
+	/**
+	 * constructor - creates a new task for the pairs (i, j) with i in
+	 * [rowFrom, rowTo), j in [colFrom, colTo) and i < j
+	 */
+	private PairwiseSimilarityTask(Movie[] movies, SimilarityMetric metric, boolean symmetric, BlockedGenomeCosine genome,
+			int rowFrom, int rowTo, int colFrom, int colTo, int maxNeighbours, NeighbourHeap[] neighbours) {
+		this.movies = movies;
+		this.metric = metric;
+		this.symmetric = symmetric;
+		this.genome = genome;
+		this.rowFrom = rowFrom;
+		this.rowTo = rowTo;
+		this.colFrom = colFrom;
+		this.colTo = colTo;
+		this.maxNeighbours = maxNeighbours;
+		this.neighbours = neighbours;
+		this.result = (maxNeighbours > 0) ? null : new PairBuffer();
+	}
+
+	/**
+	 * calculates the similarities for the pairs in this task's block
+	 */
+	@Override
+	protected void compute() {
+		if (maxNeighbours > 0) {
+			// Local heaps for the rows of each block (the same array if the blocks coincide)
+			rowHeaps = new NeighbourHeap[rowTo - rowFrom];
+			colHeaps = (colFrom == rowFrom) ? rowHeaps : new NeighbourHeap[colTo - colFrom];
+		}
+
+		if (genome != null)
+			genome.computeBlock(rowFrom, rowTo, colFrom, colTo, this);
+		else
+			computeWithMetric();
+
+		if (maxNeighbours > 0) {
+			// Merge the local heaps into the shared heaps
+			merge(rowHeaps, rowFrom);
+			if (colHeaps != rowHeaps)
+				merge(colHeaps, colFrom);
+			rowHeaps = colHeaps = null;
+		}
+	}
+
+	/**
+	 * calculates the similarities for the pairs in this task's block using 
+	 * the metric's batch method (one target movie against a range of 
+	 * candidates at a time)
+	 */
+	private void computeWithMetric() {
+		double[] sims = new double[Math.max(rowTo - rowFrom, colTo - colFrom)];
+
+		// sim(m1, m2) for m1 in the first block and m2 in the second block (and 
+		// sim(m2, m1) if the similarity is symmetric)
+		for (int i = rowFrom; i < rowTo; i++) {
+			int from = Math.max(colFrom, i + 1);
+			if (from >= colTo)
+				continue;
+			metric.calculateSimilarities(movies[i], movies, from, colTo, sims);
+			for (int j = from; j < colTo; j++) {
+				add(i, j, sims[j - from]);
+				if (symmetric)
+					add(j, i, sims[j - from]);
+			}
+		}
+
+		// sim(m2, m1) if the similarity is not symmetric
+		if (!symmetric)
+			for (int j = colFrom; j < colTo; j++) {
+				int to = Math.min(rowTo, j);
+				if (rowFrom >= to)
+					continue;
+				metric.calculateSimilarities(movies[j], movies, rowFrom, to, sims);
+				for (int i = rowFrom; i < to; i++)
+					add(j, i, sims[i - rowFrom]);
+			}
+	}
+
+	/**
+	 * records a similarity calculated by this task; similarities which are 
+	 * not greater than zero are ignored
+	 * @param row - the ordinal of the first movie (in either of the task's blocks)
+	 * @param col - the ordinal of the second movie
+	 * @param sim - the similarity
+	 */
+	void add(int row, int col, double sim) {
+		if (sim <= 0)
+			return;
+
+		if (maxNeighbours == 0)
+			result.add(row, col, sim);
+		else if (row >= rowFrom && row < rowTo)
+			offer(rowHeaps, row - rowFrom, col, sim);
+		else
+			offer(colHeaps, row - colFrom, col, sim);
+	}
+
+	/**
+	 * offers an element to a local heap, creating the heap if needed
+	 */
+	private void offer(NeighbourHeap[] heaps, int index, int col, double sim) {
+		if (heaps[index] == null)
+			heaps[index] = new NeighbourHeap(maxNeighbours);
+		heaps[index].offer(col, sim);
+	}
+
+	/**
+	 * merges local heaps into the shared heaps
+	 * @param heaps - the local heaps
+	 * @param from - the row id of the first local heap
+	 */
+	private void merge(NeighbourHeap[] heaps, int from) {
+		for (int k = 0; k < heaps.length; k++)
+			if (heaps[k] != null) {
+				NeighbourHeap shared = neighbours[from + k];
+				synchronized (shared) {
+					shared.offerAll(heaps[k]);
+				}
+			}
+	}
+
+	/**
+	 * Calculates the pairwise similarities between all movies; only
+	 * similarities greater than zero are stored.
+	 * @param movies - the movies, indexed by ordinal
+	 * @param metric - the similarity metric (must be safe to call from several threads if parallelism > 1)
+	 * @param symmetric - true if sim(m1, m2) = sim(m2, m1), in which case each pair is calculated once
+	 * @param parallelism - the number of threads to use; 1 calculates all pairs on the calling thread
+	 * @param maxNeighbours - the number of most similar movies to keep for each movie (0 keeps all)
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	static CsrMatrix computeAll(Movie[] movies, SimilarityMetric metric, boolean symmetric, int parallelism, int maxNeighbours) {
+		return computeAll(movies, metric, symmetric, null, parallelism, maxNeighbours);
+	}
+
+	/**
+	 * Calculates the genome cosine between all movies as tiles of the 
+	 * product G * G^T (see BlockedGenomeCosine); only similarities greater 
+	 * than zero are stored.
+	 * @param movies - the movies, indexed by ordinal
+	 * @param genome - the genome cosine engine for the movies
+	 * @param parallelism - the number of threads to use; 1 calculates all pairs on the calling thread
+	 * @param maxNeighbours - the number of most similar movies to keep for each movie (0 keeps all)
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	static CsrMatrix computeAll(Movie[] movies, BlockedGenomeCosine genome, int parallelism, int maxNeighbours) {
+		return computeAll(movies, null, true, genome, parallelism, maxNeighbours);
+	}
+
+	private static CsrMatrix computeAll(Movie[] movies, SimilarityMetric metric, boolean symmetric, BlockedGenomeCosine genome,
+			int parallelism, int maxNeighbours) {
+		int n = movies.length;
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		if (maxNeighbours < 0)
+			throw new IllegalArgumentException("maxNeighbours must not be negative");
+
+		NeighbourHeap[] neighbours = null;
+		if (maxNeighbours > 0) {
+			neighbours = new NeighbourHeap[n];
+			for (int i = 0; i < n; i++)
+				neighbours[i] = new NeighbourHeap(maxNeighbours);
+		}
+
+		// Split the movies into blocks and create a task for each block pair on or above the diagonal
+		int minBlockSize = (genome != null) ? MIN_GENOME_BLOCK_SIZE : MIN_BLOCK_SIZE;
+		int numBlocks = Math.max(1, Math.min(parallelism * BLOCKS_PER_THREAD, n / minBlockSize));
+		if (parallelism == 1)
+			numBlocks = 1;
+		int[] bounds = new int[numBlocks + 1];
+		for (int b = 0; b <= numBlocks; b++)
+			bounds[b] = (int)((long)n * b / numBlocks);
+
+		List<PairwiseSimilarityTask> tasks = new ArrayList<>();
+		for (int bi = 0; bi < numBlocks; bi++)
+			for (int bj = bi; bj < numBlocks; bj++)
+				tasks.add(new PairwiseSimilarityTask(movies, metric, symmetric, genome,
+						bounds[bi], bounds[bi + 1], bounds[bj], bounds[bj + 1], maxNeighbours, neighbours));
+
+		if (parallelism == 1) {
+			for (PairwiseSimilarityTask task: tasks)
+				task.compute();
+			return collect(tasks, neighbours, n, null);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+			return collect(tasks, neighbours, n, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return a matrix built from the shared heaps (if not null) or else from the buffers of the tasks
+	 */
+	private static CsrMatrix collect(List<PairwiseSimilarityTask> tasks, NeighbourHeap[] neighbours, int n, ForkJoinPool pool) {
+		if (neighbours != null) {
+			int[][] rowCols = new int[n][];
+			double[][] rowValues = new double[n][];
+			for (int i = 0; i < n; i++) {
+				rowCols[i] = neighbours[i].getCols();
+				rowValues[i] = neighbours[i].getValues();
+				neighbours[i] = null;
+			}
+			return CsrMatrix.fromRows(rowCols, rowValues, pool);
+		}
+
+		List<PairBuffer> buffers = new ArrayList<>();
+		for (PairwiseSimilarityTask task: tasks)
+			buffers.add(task.result);
+		return CsrMatrix.fromBuffers(n, buffers, pool);
+	}
+}
@@ -5,8 +5,6 @@
 
 package alg.cb.similarity;
 
-import java.util.Map;
-
 import alg.cb.casebase.Movie;
 
 public class PopularitySimilarity implements SimilarityMetric {	
@@ -24,10 +22,30 @@ public class PopularitySimilarity implements SimilarityMetric {
 	 */
 	@Override
 	public double calculateSimilarity(Movie m1, Movie m2) {		
-		// Get the ratings for movie m2
-		Map<Integer,Double> r2 = m2.getRatings();
-
 		// Return the popularity of movie m2 or zero if it has no ratings
-		return (r2 != null) ? r2.size() : 0;		
+		return m2.getNumRatings();		
+	}
+
+	/**
+	 * copies the popularity (number of ratings) of each of a range of 
+	 * candidate movies; the target movie is not used
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		for (int i = from; i < to; i++)
+			out[i - from] = candidates[i].getNumRatings();
+	}
+
+	/**
+	 * @return false - similarity depends only on m2
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
 	}
 }
@@ -0,0 +1,211 @@
+/**
+ * A class to calculate the rating-based similarities (ratings cosine and 
+ * confidence) between all movies from the user => movie postings, i.e. as 
+ * the sparse matrix product R * R^T of the movie x user ratings matrix.
+ * 
+ * For each movie, the postings of each of its raters are visited and the 
+ * products (or liked co-occurrence counts) are accumulated into a dense 
+ * per-thread array, so only pairs of movies which share at least one rater 
+ * are ever touched: the cost depends on the number of co-occurrences rather 
+ * than on n^2. Each movie's row is computed in full by one task, and the 
+ * products of each pair are summed in ascending user order, so the 
+ * similarities are identical to those of RatingsCosineSimilarity and 
+ * ConfidenceSimilarity.
+ */
+
+package alg.cb.similarity;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.util.CsrMatrix;
+import alg.cb.util.NeighbourHeap;
+
+class RatingsCooccurrence {
+	private static final int BLOCKS_PER_THREAD = 8; // the number of row blocks per thread (for load balancing)
+
+	private Movie[] movies; // the movies, indexed by ordinal
+	private int[][] movieUsers; // the user ordinals of each movie's ratings, in ascending order
+	private int[] userStart; // the postings of user u span [userStart[u], userStart[u + 1])
+	private int[] postingMovies; // the movie ordinal of each posting, in ascending order per user
+	private float[] postingValues; // the rating of each posting
+
+	/**
+	 * constructor - creates a new object
+	 */
+	private RatingsCooccurrence(Movie[] movies, int[][] movieUsers, int[] userStart, int[] postingMovies, float[] postingValues) {
+		this.movies = movies;
+		this.movieUsers = movieUsers;
+		this.userStart = userStart;
+		this.postingMovies = postingMovies;
+		this.postingValues = postingValues;
+	}
+
+	/**
+	 * builds the user => movie postings of the casebase
+	 * @param cb - the casebase
+	 * @return an object for the movies in the casebase, or null if the user 
+	 * ordinals are out of date (see Casebase.buildUserOrdinals)
+	 */
+	static RatingsCooccurrence create(Casebase cb) {
+		Movie[] movies = cb.getMovieArray();
+		int numUsers = cb.getNumberUsers();
+
+		// Map the user ids of each movie to user ordinals and count the postings of each user
+		int[][] movieUsers = new int[movies.length][];
+		int[] userStart = new int[numUsers + 1];
+		for (int m = 0; m < movies.length; m++) {
+			int[] ids = movies[m].getRatingUserIds();
+			int[] ordinals = new int[ids.length];
+			for (int k = 0; k < ids.length; k++) {
+				ordinals[k] = cb.getUserOrdinal(ids[k]);
+				if (ordinals[k] < 0)
+					return null;
+				userStart[ordinals[k] + 1]++;
+			}
+			movieUsers[m] = ordinals;
+		}
+		for (int u = 0; u < numUsers; u++)
+			userStart[u + 1] += userStart[u];
+
+		// Fill the postings in ascending movie order
+		int[] postingMovies = new int[userStart[numUsers]];
+		float[] postingValues = new float[userStart[numUsers]];
+		int[] next = Arrays.copyOf(userStart, numUsers);
+		for (int m = 0; m < movies.length; m++) {
+			float[] values = movies[m].getRatingValues();
+			for (int k = 0; k < movieUsers[m].length; k++) {
+				int pos = next[movieUsers[m][k]]++;
+				postingMovies[pos] = m;
+				postingValues[pos] = values[k];
+			}
+		}
+
+		return new RatingsCooccurrence(movies, movieUsers, userStart, postingMovies, postingValues);
+	}
+
+	/**
+	 * calculates the ratings cosine between all movies (see RatingsCosineSimilarity)
+	 * @param parallelism - the number of threads to use; 1 calculates all rows on the calling thread
+	 * @param maxNeighbours - the number of most similar movies to keep for each movie (0 keeps all)
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	CsrMatrix computeCosine(int parallelism, int maxNeighbours) {
+		return computeAll(false, 0, parallelism, maxNeighbours);
+	}
+
+	/**
+	 * calculates the confidence between all movies (see ConfidenceSimilarity)
+	 * @param threshold - the rating threshold for liked movies
+	 * @param parallelism - the number of threads to use; 1 calculates all rows on the calling thread
+	 * @param maxNeighbours - the number of most similar movies to keep for each movie (0 keeps all)
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	CsrMatrix computeConfidence(double threshold, int parallelism, int maxNeighbours) {
+		return computeAll(true, threshold, parallelism, maxNeighbours);
+	}
+
+	/**
+	 * calculates all rows of the cosine or confidence matrix
+	 */
+	private CsrMatrix computeAll(boolean confidence, double threshold, int parallelism, int maxNeighbours) {
+		int n = movies.length;
+		int[][] rowCols = new int[n][];
+		double[][] rowValues = new double[n][];
+
+		if (parallelism == 1) {
+			computeRows(0, n, confidence, threshold, maxNeighbours, rowCols, rowValues);
+			return CsrMatrix.fromRows(rowCols, rowValues, null);
+		}
+
+		// Split the rows into blocks; each block allocates its own accumulators
+		int numBlocks = Math.max(1, Math.min(parallelism * BLOCKS_PER_THREAD, n));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> IntStream.range(0, numBlocks).parallel().forEach(b -> 
+					computeRows((int)((long)n * b / numBlocks), (int)((long)n * (b + 1) / numBlocks), 
+							confidence, threshold, maxNeighbours, rowCols, rowValues))).join();
+			return CsrMatrix.fromRows(rowCols, rowValues, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * calculates the rows [from, to) of the cosine or confidence matrix
+	 */
+	private void computeRows(int from, int to, boolean confidence, double threshold, int maxNeighbours, 
+			int[][] rowCols, double[][] rowValues) {
+		int n = movies.length;
+		double[] products = new double[n]; // the accumulated products (cosine)
+		int[] counts = new int[n]; // the accumulated liked co-occurrences (confidence)
+		int[] touched = new int[n]; // the movies which co-occur with the current movie
+		int[] stamp = new int[n]; // the row in which each movie was last touched, plus one
+
+		for (int i = from; i < to; i++) {
+			int[] users = movieUsers[i];
+			float[] values = movies[i].getRatingValues();
+			int numTouched = 0;
+
+			// Visit the postings of each user who rated movie i, in ascending user order
+			for (int k = 0; k < users.length; k++) {
+				float vi = values[k];
+				if (confidence && vi < threshold)
+					continue;
+
+				for (int p = userStart[users[k]]; p < userStart[users[k] + 1]; p++) {
+					int j = postingMovies[p];
+					if (j == i)
+						continue;
+					float vj = postingValues[p];
+					if (confidence && vj < threshold)
+						continue;
+
+					if (stamp[j] != i + 1) {
+						stamp[j] = i + 1;
+						products[j] = 0;
+						counts[j] = 0;
+						touched[numTouched++] = j;
+					}
+					if (confidence)
+						counts[j]++;
+					else
+						products[j] += vi * (double)vj;
+				}
+			}
+
+			// Convert the accumulated values to similarities
+			double length1 = movies[i].getRatingsNorm();
+			int suppM1 = confidence ? movies[i].getLikedCount(threshold) : 0;
+			NeighbourHeap heap = (maxNeighbours > 0) ? new NeighbourHeap(maxNeighbours) : null;
+			int[] cols = new int[numTouched];
+			double[] sims = new double[numTouched];
+			int size = 0;
+			for (int t = 0; t < numTouched; t++) {
+				int j = touched[t];
+				double sim;
+				if (confidence) {
+					sim = (suppM1 > 0) ? counts[j] * 1.0 / suppM1 : 0;
+				} else {
+					double length2 = movies[j].getRatingsNorm();
+					sim = (length1 > 0 && length2 > 0) ? products[j] / (length1 * length2) : 0;
+				}
+				if (sim <= 0)
+					continue;
+
+				if (heap != null)
+					heap.offer(j, sim);
+				else {
+					cols[size] = j;
+					sims[size++] = sim;
+				}
+			}
+
+			rowCols[i] = (heap != null) ? heap.getCols() : Arrays.copyOf(cols, size);
+			rowValues[i] = (heap != null) ? heap.getValues() : Arrays.copyOf(sims, size);
+		}
+	}
+}
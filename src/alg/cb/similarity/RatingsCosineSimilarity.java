@@ -5,9 +5,10 @@
 
 package alg.cb.similarity;
 
-import java.util.Map;
+import java.util.Arrays;
 
 import alg.cb.casebase.Movie;
+import alg.cb.util.SparseVectors;
 
 public class RatingsCosineSimilarity implements SimilarityMetric {	
 	/**
@@ -24,31 +25,61 @@ public class RatingsCosineSimilarity implements SimilarityMetric {
 	 */
 	@Override
 	public double calculateSimilarity(Movie m1, Movie m2) {		
-		// Get the ratings for each movie
-		Map<Integer,Double> r1 = m1.getRatings();
-		Map<Integer,Double> r2 = m2.getRatings();
-		
 		// Return zero if either movie has no ratings
-		if (r1 == null || r2 == null) 
+		if (m1.getRatings() == null || m2.getRatings() == null) 
 			return 0;
 
-		// Calculate the cosine over the ratings
-		double product = 0;
-		for(int id: r1.keySet()) 
-			if (r2.containsKey(id))
-				product += r1.get(id) * r2.get(id);
+		// Calculate the cosine over the ratings; the ratings are intersected
+		// by merge join over the sorted user ids and the norms are cached
+		double product = SparseVectors.dot(m1.getRatingUserIds(), m1.getRatingValues(), 
+				m2.getRatingUserIds(), m2.getRatingValues());
 	
-		double length1 = 0;
-		for (int id: r1.keySet())
-			length1 += Math.pow(r1.get(id), 2);
-		length1 = Math.sqrt(length1);
-		
-		double length2 = 0;
-		for (int id: r2.keySet())
-			length2 += Math.pow(r2.get(id), 2);
-		length2 = Math.sqrt(length2);
+		double length1 = m1.getRatingsNorm();
+		double length2 = m2.getRatingsNorm();
 		
 		// Return zero if division by zero occurs
 		return (length1 > 0 && length2 > 0) ? product / (length1 * length2) : 0;
 	}
+
+	/**
+	 * computes the ratings cosine between a target movie and each of a range 
+	 * of candidate movies; each dot product is a merge join of the target's 
+	 * sorted ratings with the candidate's
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		// Return zero for all candidates if the target has no ratings
+		if (target.getRatings() == null) {
+			Arrays.fill(out, 0, to - from, 0);
+			return;
+		}
+		
+		int[] ids1 = target.getRatingUserIds();
+		float[] values1 = target.getRatingValues();
+		double length1 = target.getRatingsNorm();
+		for (int i = from; i < to; i++) {
+			Movie m2 = candidates[i];
+			double length2 = m2.getRatingsNorm();
+			if (m2.getRatings() == null || !(length1 > 0 && length2 > 0)) {
+				out[i - from] = 0;
+				continue;
+			}
+			
+			double product = SparseVectors.dot(ids1, values1, m2.getRatingUserIds(), m2.getRatingValues());
+			out[i - from] = product / (length1 * length2);
+		}
+	}
+
+	/**
+	 * @return true - cosine is symmetric
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return true;
+	}
 }
@@ -0,0 +1,30 @@
+/**
+ * A kernel to calculate the dot product of two dense genome vectors with a 
+ * plain loop. This is the fallback when the SIMD kernel is not available 
+ * (see GenomeKernel).
+ */
+
+package alg.cb.similarity;
+
+class ScalarGenomeKernel implements GenomeKernel {
+	/**
+	 * @param v1 - the first vector
+	 * @param v2 - the second vector (same length as v1)
+	 * @return the dot product of the vectors
+	 */
+	@Override
+	public double dot(double[] v1, double[] v2) {
+		double product = 0;
+		for (int i = 0; i < v1.length; i++)
+			product += v1[i] * v2[i];
+		return product;
+	}
+
+	/**
+	 * @return the name of the kernel
+	 */
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+}
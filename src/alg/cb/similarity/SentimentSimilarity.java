@@ -46,4 +46,35 @@ public class SentimentSimilarity implements SimilarityMetric {
 		// if either similarity or sentiment is zero.
 		return (sim > 0 && sent > 0) ? alpha * sim + (1 - alpha) * sent : 0;
 	}
+
+	/**
+	 * computes the sentiment-weighted similarity between a target movie and 
+	 * each of a range of candidate movies: the underlying metric scores the 
+	 * whole range in one call, and each result is then blended with the 
+	 * candidate's mean rating
+	 * @param target - the target movie
+	 * @param candidates - the candidate movies
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (out[i - from] for candidates[i])
+	 */
+	@Override
+	public void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		// Calculate the similarities according to the specified metric
+		metric.calculateSimilarities(target, candidates, from, to, out);
+		
+		for (int i = from; i < to; i++) {
+			double sim = out[i - from];
+			double sent = candidates[i].getMeanRating() / maxRating;
+			out[i - from] = (sim > 0 && sent > 0) ? alpha * sim + (1 - alpha) * sent : 0;
+		}
+	}
+
+	/**
+	 * @return false - sentiment depends only on m2
+	 */
+	@Override
+	public boolean isSymmetric() {
+		return false;
+	}
 }
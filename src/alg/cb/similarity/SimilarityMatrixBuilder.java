@@ -0,0 +1,134 @@
+/**
+ * A class to calculate the pairwise similarities between all movies in a 
+ * casebase. This is the single build engine used by the recommenders and 
+ * the similarity experiments.
+ * 
+ * Only similarities greater than zero are stored. The matrix is keyed by 
+ * movie ordinal (see Casebase.getMovieArray), and each row lists its 
+ * elements in descending order of similarity. Symmetric metrics (see 
+ * SimilarityMetric.isSymmetric) are evaluated once per pair; other metrics 
+ * are evaluated in both directions.
+ * 
+ * By default all non-zero similarities are kept. If a maximum number of 
+ * neighbours K is set, only the K most similar movies to each movie are 
+ * kept (ties broken by ascending ordinal), which reduces the memory needed 
+ * from O(n^2) to O(n * K). Similarities outside the top K are then 
+ * reported as zero.
+ * 
+ * With the scalar kernel, the genome cosine (GenomeCosineSimilarity) is 
+ * calculated by a dedicated engine which computes the product of the genome 
+ * matrix with its transpose in cache-blocked tiles (see BlockedGenomeCosine); 
+ * the result is the same as evaluating the metric pair by pair. With the 
+ * SIMD kernel the metric itself is evaluated. Likewise, the ratings 
+ * cosine (RatingsCosineSimilarity) and confidence (ConfidenceSimilarity) 
+ * are calculated from the user => movie postings, visiting only pairs of 
+ * movies which share a rater (see RatingsCooccurrence).
+ * 
+ * buildLazy instead returns a matrix whose rows are calculated on first 
+ * request and kept in a bounded cache (see LazySimilarityMatrix), which 
+ * avoids the O(n^2) build when only some movies are queried.
+ */
+
+package alg.cb.similarity;
+
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.util.CsrMatrix;
+
+public class SimilarityMatrixBuilder {
+	private SimilarityMetric metric; // the similarity metric
+	private int parallelism; // the number of threads used to calculate the similarities
+	private int maxNeighbours; // the number of neighbours kept per movie (0 keeps all)
+
+	/**
+	 * constructor - creates a new object which uses all available processors
+	 * @param metric - the similarity metric
+	 */
+	public SimilarityMatrixBuilder(SimilarityMetric metric) {
+		this.metric = metric;
+		this.parallelism = Runtime.getRuntime().availableProcessors();
+		this.maxNeighbours = 0;
+	}
+
+	/**
+	 * @return the similarity metric
+	 */
+	public SimilarityMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 * @return the number of threads used to calculate the similarities
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * sets the number of threads used to calculate the similarities; the 
+	 * result is the same for any value
+	 * @param parallelism - the number of threads (1 calculates all pairs on the calling thread)
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the number of neighbours kept per movie (0 if all are kept)
+	 */
+	public int getMaxNeighbours() {
+		return maxNeighbours;
+	}
+
+	/**
+	 * sets the number of neighbours kept per movie
+	 * @param maxNeighbours - the number of most similar movies kept for each movie (0 keeps all)
+	 */
+	public void setMaxNeighbours(int maxNeighbours) {
+		if (maxNeighbours < 0)
+			throw new IllegalArgumentException("maxNeighbours must not be negative");
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * calculates the pairwise similarities between all movies in the casebase
+	 * @param cb - the casebase
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	public CsrMatrix build(Casebase cb) {
+		Movie[] movies = cb.getMovieArray();
+
+		// Use the blocked engine for the genome cosine (but not for subclasses, which may change the metric, 
+		// or with the SIMD kernel, whose rounding the tiles do not reproduce)
+		if (metric.getClass() == GenomeCosineSimilarity.class) {
+			BlockedGenomeCosine genome = BlockedGenomeCosine.create(movies);
+			if (genome != null)
+				return PairwiseSimilarityTask.computeAll(movies, genome, parallelism, maxNeighbours);
+		}
+
+		// Use the postings for the rating-based metrics
+		if (metric.getClass() == RatingsCosineSimilarity.class || metric.getClass() == ConfidenceSimilarity.class) {
+			RatingsCooccurrence ratings = RatingsCooccurrence.create(cb);
+			if (ratings != null)
+				return (metric instanceof ConfidenceSimilarity) 
+						? ratings.computeConfidence(((ConfidenceSimilarity)metric).getThreshold(), parallelism, maxNeighbours) 
+						: ratings.computeCosine(parallelism, maxNeighbours);
+		}
+
+		return PairwiseSimilarityTask.computeAll(movies, metric, metric.isSymmetric(), parallelism, maxNeighbours);
+	}
+
+	/**
+	 * creates a matrix of the pairwise similarities between all movies in the 
+	 * casebase whose rows are calculated on demand; no similarities are 
+	 * calculated by this method (the parallelism setting is not used)
+	 * @param cb - the casebase
+	 * @param maxRows - the maximum number of rows kept in the cache
+	 * @return a matrix of similarities keyed by movie ordinal
+	 */
+	public LazySimilarityMatrix buildLazy(Casebase cb, int maxRows) {
+		return new LazySimilarityMatrix(cb.getMovieArray(), metric, maxNeighbours, maxRows);
+	}
+}
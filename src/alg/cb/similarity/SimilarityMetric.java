@@ -14,4 +14,41 @@ public interface SimilarityMetric {
 	 * @return the similarity
 	 */
 	public abstract double calculateSimilarity(Movie m1, Movie m2);
+	
+	/**
+	 * computes the similarity between a target movie and each of a range of 
+	 * candidate movies, i.e. out[i - from] = calculateSimilarity(target, 
+	 * candidates[i]) for i in [from, to). Metrics override this method to 
+	 * derive the target's state (e.g. its norm) once for all candidates; 
+	 * the results must be the same as those of calculateSimilarity.
+	 * @param target - the target movie (m1)
+	 * @param candidates - the candidate movies (m2)
+	 * @param from - the index of the first candidate
+	 * @param to - the index after the last candidate
+	 * @param out - the array which receives the similarities (at least to - from elements)
+	 */
+	public default void calculateSimilarities(Movie target, Movie[] candidates, int from, int to, double[] out) {
+		for (int i = from; i < to; i++)
+			out[i - from] = calculateSimilarity(target, candidates[i]);
+	}
+	
+	/**
+	 * computes the similarity between a target movie and each candidate movie
+	 * @param target - the target movie (m1)
+	 * @param candidates - the candidate movies (m2)
+	 * @param out - the array which receives the similarities (out[i] for candidates[i])
+	 */
+	public default void calculateSimilarities(Movie target, Movie[] candidates, double[] out) {
+		calculateSimilarities(target, candidates, 0, candidates.length, out);
+	}
+	
+	/**
+	 * indicates whether sim(m1, m2) = sim(m2, m1) for all movies; if so, the 
+	 * pairwise similarity build calculates each pair once. The default is 
+	 * false, which is always safe.
+	 * @return true if the similarity is symmetric
+	 */
+	public default boolean isSymmetric() {
+		return false;
+	}
 }
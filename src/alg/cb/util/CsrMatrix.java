@@ -0,0 +1,267 @@
+/**
+ * A class to represent an immutable sparse matrix in compressed sparse row
+ * (CSR) form, with row and column ids in the range 0..numRows-1 (e.g. movie
+ * ordinals).
+ *
+ * The elements of each row are stored in descending order of value (ties
+ * broken by ascending column id), so that iterating over a row visits the
+ * most similar items first. A second, column-sorted index per row is used to
+ * look up individual elements by binary search.
+ */
+
+package alg.cb.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class CsrMatrix implements ReadOnlyMatrix {
+	private int numRows; // the number of rows
+	private int[] rowStart; // row r spans [rowStart[r], rowStart[r + 1])
+	private int[] cols; // the column ids of each row, in descending order of value
+	private double[] values; // the values of each row, in descending order
+	private int[] sortedCols; // the column ids of each row, in ascending order
+	private int[] sortedPos; // the position in cols/values of each element of sortedCols
+
+	/**
+	 * constructor - creates a new CsrMatrix object
+	 * @param numRows - the number of rows
+	 * @param rowStart - the row offsets (numRows + 1 elements)
+	 * @param cols - the column id of each element, grouped by row
+	 * @param values - the value of each element, grouped by row
+	 * @param pool - the pool used to sort the rows in parallel, or null to sort on the calling thread
+	 */
+	private CsrMatrix(int numRows, int[] rowStart, int[] cols, double[] values, ForkJoinPool pool) {
+		this.numRows = numRows;
+		this.rowStart = rowStart;
+		this.cols = cols;
+		this.values = values;
+		this.sortedCols = new int[cols.length];
+		this.sortedPos = new int[cols.length];
+
+		if (pool == null)
+			for (int r = 0; r < numRows; r++)
+				sortRow(r);
+		else
+			pool.submit(() -> IntStream.range(0, numRows).parallel().forEach(this::sortRow)).join();
+	}
+
+	/**
+	 * Creates a matrix from buffers of elements. Each (row, column) pair
+	 * must occur at most once over all buffers. The result does not depend
+	 * on how elements are distributed over the buffers or on their order.
+	 * @param numRows - the number of rows (row and column ids must be in 0..numRows-1)
+	 * @param buffers - the buffers
+	 * @param pool - the pool used to sort the rows in parallel, or null to sort on the calling thread
+	 * @return the matrix
+	 */
+	public static CsrMatrix fromBuffers(int numRows, List<PairBuffer> buffers, ForkJoinPool pool) {
+		// Count the elements in each row
+		int[] rowStart = new int[numRows + 1];
+		for (PairBuffer b: buffers)
+			for (int i = 0; i < b.size(); i++)
+				rowStart[b.getRow(i) + 1]++;
+		for (int r = 0; r < numRows; r++)
+			rowStart[r + 1] += rowStart[r];
+
+		// Copy the elements into their rows
+		int[] cols = new int[rowStart[numRows]];
+		double[] values = new double[rowStart[numRows]];
+		int[] next = Arrays.copyOf(rowStart, numRows);
+		for (PairBuffer b: buffers)
+			for (int i = 0; i < b.size(); i++) {
+				int pos = next[b.getRow(i)]++;
+				cols[pos] = b.getCol(i);
+				values[pos] = b.getValue(i);
+			}
+
+		return new CsrMatrix(numRows, rowStart, cols, values, pool);
+	}
+
+	/**
+	 * Creates a matrix from per-row arrays. Column ids must be distinct within a row.
+	 * @param rowCols - the column ids of each row (null for an empty row)
+	 * @param rowValues - the values of each row (null for an empty row)
+	 * @param pool - the pool used to sort the rows in parallel, or null to sort on the calling thread
+	 * @return the matrix
+	 */
+	public static CsrMatrix fromRows(int[][] rowCols, double[][] rowValues, ForkJoinPool pool) {
+		int numRows = rowCols.length;
+		int[] rowStart = new int[numRows + 1];
+		for (int r = 0; r < numRows; r++)
+			rowStart[r + 1] = rowStart[r] + ((rowCols[r] != null) ? rowCols[r].length : 0);
+
+		int[] cols = new int[rowStart[numRows]];
+		double[] values = new double[rowStart[numRows]];
+		for (int r = 0; r < numRows; r++)
+			if (rowCols[r] != null) {
+				System.arraycopy(rowCols[r], 0, cols, rowStart[r], rowCols[r].length);
+				System.arraycopy(rowValues[r], 0, values, rowStart[r], rowValues[r].length);
+			}
+
+		return new CsrMatrix(numRows, rowStart, cols, values, pool);
+	}
+
+	/**
+	 * @param row - the row id
+	 * @param col - the column id
+	 * @return the value corresponding to (row, col) or 0 if the element is not present in the matrix
+	 */
+	@Override
+	public double getValue(int row, int col) {
+		if (row < 0 || row >= numRows)
+			return 0;
+
+		int i = Arrays.binarySearch(sortedCols, rowStart[row], rowStart[row + 1], col);
+		return (i >= 0) ? values[sortedPos[i]] : 0;
+	}
+
+	/**
+	 * @return a copy of the ids of the non-empty rows
+	 */
+	@Override
+	public Set<Integer> getRowIds() {
+		Set<Integer> ids = new HashSet<>();
+		for (int r = 0; r < numRows; r++)
+			if (rowStart[r + 1] > rowStart[r])
+				ids.add(r);
+		return ids;
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the number of elements in the specified row
+	 */
+	@Override
+	public int getRowSize(int row) {
+		return getRowEnd(row) - getRowStart(row);
+	}
+
+	/**
+	 * performs the specified action for each element in the specified row,
+	 * in descending order of value
+	 * @param row - the row id
+	 * @param action - the action, which receives the column id and value of each element
+	 */
+	@Override
+	public void forEachInRow(int row, IntDoubleConsumer action) {
+		for (int i = getRowStart(row); i < getRowEnd(row); i++)
+			action.accept(cols[i], values[i]);
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the mean of the values in the specified row or 0 if the row is empty
+	 */
+	@Override
+	public double getRowMean(int row) {
+		double sum = 0;
+		for (int i = getRowStart(row); i < getRowEnd(row); i++)
+			sum += values[i];
+		return (getRowSize(row) > 0) ? sum / getRowSize(row) : 0;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the position of the first element of the row (see getColAt and getValueAt)
+	 */
+	public int getRowStart(int row) {
+		return (row >= 0 && row < numRows) ? rowStart[row] : 0;
+	}
+
+	/**
+	 * @param row - the row id
+	 * @return the position after the last element of the row
+	 */
+	public int getRowEnd(int row) {
+		return (row >= 0 && row < numRows) ? rowStart[row + 1] : 0;
+	}
+
+	/**
+	 * @param pos - the position of an element
+	 * @return the column id of the element
+	 */
+	public int getColAt(int pos) {
+		return cols[pos];
+	}
+
+	/**
+	 * @param pos - the position of an element
+	 * @return the value of the element
+	 */
+	public double getValueAt(int pos) {
+		return values[pos];
+	}
+
+	/**
+	 * Sorts a row in descending order of value (ties by ascending column id)
+	 * and builds its column-sorted index.
+	 * @param row - the row id
+	 */
+	private void sortRow(int row) {
+		int from = rowStart[row];
+		int to = rowStart[row + 1];
+		sortByValueDsc(cols, values, from, to - 1);
+
+		int[] order = SparseVectors.getSortedOrder(cols, from, to);
+		for (int i = 0; i < order.length; i++) {
+			sortedCols[from + i] = cols[order[i]];
+			sortedPos[from + i] = order[i];
+		}
+	}
+
+	/**
+	 * @return true if element i comes before element j (descending value, then ascending column)
+	 */
+	private static boolean before(int[] c, double[] v, int i, int j) {
+		return v[i] > v[j] || (v[i] == v[j] && c[i] < c[j]);
+	}
+
+	/**
+	 * Sorts the elements in [lo, hi] in descending order of value, ties by ascending column id.
+	 */
+	private static void sortByValueDsc(int[] c, double[] v, int lo, int hi) {
+		while (hi - lo > 16) {
+			// Median-of-three pivot, moved to hi
+			int mid = (lo + hi) >>> 1;
+			if (before(c, v, mid, lo)) swap(c, v, mid, lo);
+			if (before(c, v, hi, lo)) swap(c, v, hi, lo);
+			if (before(c, v, mid, hi)) swap(c, v, mid, hi);
+
+			int store = lo;
+			for (int i = lo; i < hi; i++)
+				if (before(c, v, i, hi))
+					swap(c, v, i, store++);
+			swap(c, v, store, hi);
+
+			// Recurse into the smaller part
+			if (store - lo < hi - store) {
+				sortByValueDsc(c, v, lo, store - 1);
+				lo = store + 1;
+			} else {
+				sortByValueDsc(c, v, store + 1, hi);
+				hi = store - 1;
+			}
+		}
+
+		// Insertion sort for short ranges
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && before(c, v, j, j - 1); j--)
+				swap(c, v, j, j - 1);
+	}
+
+	private static void swap(int[] c, double[] v, int i, int j) {
+		int tc = c[i]; c[i] = c[j]; c[j] = tc;
+		double tv = v[i]; v[i] = v[j]; v[j] = tv;
+	}
+}
@@ -1,6 +1,6 @@
 package alg.cb.util;
 
-import alg.cb.util.Matrix;
+import alg.cb.util.ReadOnlyMatrix;
 
 public class Histogram {
 	private double min; // the minimum of the range covered by the histogram bins
@@ -34,13 +34,12 @@ public class Histogram {
      * by min and max will be divided into this many bins.
      * @param m - constructs a histogram using the data in m
      */
-	public Histogram(double min, double max, int numBins, Matrix m) {
+	public Histogram(double min, double max, int numBins, ReadOnlyMatrix m) {
 		this(min, max, numBins);
 		
 		// Add each value in the matrix to the histogram
 		for (int rowId: m.getRowIds())
-			for (int colId: m.getColIds(rowId))
-				addValue(m.getValue(rowId, colId));
+			m.forEachInRow(rowId, (colId, value) -> addValue(value));
 	}
 	
 	/**  
@@ -0,0 +1,15 @@
+/**
+ * An operation that accepts an int key and a double value, used to iterate 
+ * over matrix rows without boxing.
+ */
+
+package alg.cb.util;
+
+public interface IntDoubleConsumer {
+	/**
+	 * performs this operation on the given arguments
+	 * @param key - the key (e.g. a column id)
+	 * @param value - the value
+	 */
+	public abstract void accept(int key, double value);
+}
@@ -4,6 +4,7 @@
  * Uses a hash map to store matrix elements. 
  * Each key is a row id and each value is a hash map that stores the 
  * column ids (as keys) and values (as values) for that row.
+ * See ReadOnlyMatrix for the methods shared with the similarity matrices.
  */
 
 package alg.cb.util;
@@ -13,7 +14,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-public class Matrix {
+public class Matrix implements ReadOnlyMatrix {
 	private Map<Integer,Map<Integer,Double>> matrix; // the data structure used to store matrix elements
 
 	/**
@@ -30,9 +31,7 @@ public class Matrix {
 	 * @param value - the value to be added
 	 */
 	public void addValue(int row, int col, double value) {
-		Map<Integer,Double> map = matrix.containsKey(row) ? matrix.get(row) : new HashMap<>();
-		map.put(col, value);
-		matrix.put(row, map);
+		matrix.computeIfAbsent(row, k -> new HashMap<>()).put(col, value);
 	}
 
 	/**
@@ -40,16 +39,19 @@ public class Matrix {
 	 * @param col - the column id
 	 * @return the value corresponding to (row, col) or 0 if the element is not present in the matrix
 	 */
+	@Override
 	public double getValue(int row, int col) {
-		if (matrix.containsKey(row) && matrix.get(row).containsKey(col))
-			return matrix.get(row).get(col);
-		else
+		Map<Integer,Double> map = matrix.get(row);
+		if (map == null)
 			return 0;
+		Double value = map.get(col);
+		return (value != null) ? value : 0;
 	}
 	
 	/**
 	 * @return the the row ids
 	 */
+	@Override
 	public Set<Integer> getRowIds() {
 		return matrix.keySet();
 	}
@@ -73,10 +75,34 @@ public class Matrix {
 			return new HashSet<>();
 	}
 	
+	/**
+	 * @param row - the row id
+	 * @return the number of elements in the specified row
+	 */
+	@Override
+	public int getRowSize(int row) {
+		Map<Integer,Double> map = matrix.get(row);
+		return (map != null) ? map.size() : 0;
+	}
+	
+	/**
+	 * performs the specified action for each element in the specified row
+	 * @param row - the row id
+	 * @param action - the action, which receives the column id and value of each element
+	 */
+	@Override
+	public void forEachInRow(int row, IntDoubleConsumer action) {
+		Map<Integer,Double> map = matrix.get(row);
+		if (map != null)
+			for (Map.Entry<Integer,Double> e: map.entrySet())
+				action.accept(e.getKey(), e.getValue());
+	}
+	
 	/**
 	 * @param row - the row id
 	 * @return the mean of the values in the specified row or 0 if the row is not present in the matrix
 	 */
+	@Override
 	public double getRowMean(int row) {
 		double sum = 0;
 
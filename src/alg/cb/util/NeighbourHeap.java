@@ -0,0 +1,139 @@
+/**
+ * A bounded heap which keeps the K best elements (column, value) offered to 
+ * it, used to collect the nearest neighbours of one movie. Elements are 
+ * ranked by descending value, ties by ascending column id, so the elements 
+ * kept do not depend on the order in which they are offered.
+ */
+
+package alg.cb.util;
+
+import java.util.Arrays;
+
+public class NeighbourHeap {
+	private int[] cols; // the column ids, as a heap with the worst element at the root
+	private double[] values; // the values, in the same order as cols
+	private int size; // the number of elements in the heap
+
+	/**
+	 * constructor - creates a new, empty NeighbourHeap object
+	 * @param capacity - the maximum number of elements to keep
+	 */
+	public NeighbourHeap(int capacity) {
+		cols = new int[capacity];
+		values = new double[capacity];
+		size = 0;
+	}
+
+	/**
+	 * offers an element to the heap; the element is kept if the heap is not 
+	 * full or if it ranks above the worst element in the heap
+	 * @param col - the column id
+	 * @param value - the value
+	 */
+	public void offer(int col, double value) {
+		if (size < cols.length) {
+			cols[size] = col;
+			values[size] = value;
+			siftUp(size++);
+		} else if (cols.length > 0 && worse(cols[0], values[0], col, value)) {
+			cols[0] = col;
+			values[0] = value;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * offers all elements of another heap to this heap
+	 * @param other - the other heap
+	 */
+	public void offerAll(NeighbourHeap other) {
+		for (int i = 0; i < other.size; i++)
+			offer(other.cols[i], other.values[i]);
+	}
+
+	/**
+	 * @return the number of elements in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value of the worst element in the heap (the heap must not be empty)
+	 */
+	public double getMinValue() {
+		return values[0];
+	}
+
+	/**
+	 * @return a copy of the column ids in the heap (in no particular order)
+	 */
+	public int[] getCols() {
+		return Arrays.copyOf(cols, size);
+	}
+
+	/**
+	 * @return a copy of the values in the heap, in the same order as getCols
+	 */
+	public double[] getValues() {
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * @return a copy of the column ids in the heap in rank order (descending 
+	 * value, ties by ascending column id)
+	 */
+	public int[] getColsInRankOrder() {
+		// Repeatedly remove the worst element from a copy of the heap
+		NeighbourHeap copy = new NeighbourHeap(0);
+		copy.cols = getCols();
+		copy.values = getValues();
+		copy.size = size;
+
+		int[] ranked = new int[size];
+		for (int i = size - 1; i >= 0; i--) {
+			ranked[i] = copy.cols[0];
+			copy.size--;
+			copy.cols[0] = copy.cols[copy.size];
+			copy.values[0] = copy.values[copy.size];
+			copy.siftDown(0);
+		}
+		return ranked;
+	}
+
+	/**
+	 * @return true if element (c1, v1) ranks below element (c2, v2)
+	 */
+	private static boolean worse(int c1, double v1, int c2, double v2) {
+		return v1 < v2 || (v1 == v2 && c1 > c2);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(cols[i], values[i], cols[parent], values[parent]))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && worse(cols[child + 1], values[child + 1], cols[child], values[child]))
+				child++;
+			if (!worse(cols[child], values[child], cols[i], values[i]))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int tc = cols[i]; cols[i] = cols[j]; cols[j] = tc;
+		double tv = values[i]; values[i] = values[j]; values[j] = tv;
+	}
+}
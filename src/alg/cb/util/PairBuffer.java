@@ -0,0 +1,76 @@
+/**
+ * A growable buffer of matrix elements (row, column, value) held in
+ * primitive arrays. Used to collect elements on one thread before they are
+ * merged into a CsrMatrix.
+ */
+
+package alg.cb.util;
+
+import java.util.Arrays;
+
+public class PairBuffer {
+	private int[] rows; // the row id of each element
+	private int[] cols; // the column id of each element
+	private double[] values; // the value of each element
+	private int size; // the number of elements
+
+	/**
+	 * constructor - creates a new, empty PairBuffer object
+	 */
+	public PairBuffer() {
+		rows = new int[64];
+		cols = new int[64];
+		values = new double[64];
+		size = 0;
+	}
+
+	/**
+	 * adds an element to the buffer
+	 * @param row - the row id
+	 * @param col - the column id
+	 * @param value - the value
+	 */
+	public void add(int row, int col, double value) {
+		if (size == rows.length) {
+			int capacity = rows.length * 2;
+			rows = Arrays.copyOf(rows, capacity);
+			cols = Arrays.copyOf(cols, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		rows[size] = row;
+		cols[size] = col;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * @return the number of elements in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i - the index of an element
+	 * @return the row id of the element
+	 */
+	public int getRow(int i) {
+		return rows[i];
+	}
+
+	/**
+	 * @param i - the index of an element
+	 * @return the column id of the element
+	 */
+	public int getCol(int i) {
+		return cols[i];
+	}
+
+	/**
+	 * @param i - the index of an element
+	 * @return the value of the element
+	 */
+	public double getValue(int i) {
+		return values[i];
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * A class to store a set of user-item ratings in compressed sparse row (CSR)
+ * form, indexed both by movie (movie -> users) and by user (user -> movies).
+ *
+ * Both orientations are built from a single list of (user, movie, rating)
+ * entries. Within each row, entries are sorted by id. If the same (user, movie)
+ * pair occurs more than once, the last occurrence is kept.
+ */
+
+package alg.cb.util;
+
+import java.util.Arrays;
+
+public class RatingsIndex {
+	private int[] movieIds; // the distinct movie ids in ascending order
+	private int[] movieRowStart; // row i spans [movieRowStart[i], movieRowStart[i + 1]) in the movie-major arrays
+	private int[] movieRowUsers; // the user ids in each movie row
+	private double[] movieRowRatings; // the ratings in each movie row
+
+	private int[] userIds; // the distinct user ids in ascending order
+	private int[] userRowStart; // row i spans [userRowStart[i], userRowStart[i + 1]) in the user-major arrays
+	private int[] userRowMovies; // the movie ids in each user row
+	private double[] userRowRatings; // the ratings in each user row
+
+	/**
+	 * constructor - creates a new RatingsIndex object
+	 * @param users - the user id of each rating
+	 * @param movies - the movie id of each rating
+	 * @param ratings - the value of each rating
+	 * @param n - the number of ratings (only the first n elements of each array are used)
+	 */
+	public RatingsIndex(int[] users, int[] movies, double[] ratings, int n) {
+		movieIds = distinct(movies, n);
+		userIds = distinct(users, n);
+
+		int[] movieRow = toIndices(movies, n, movieIds);
+		int[] userRow = toIndices(users, n, userIds);
+
+		// Build the movie-major index
+		Csr m = buildCsr(movieRow, movieIds.length, userRow, n);
+		movieRowStart = m.rowStart;
+		movieRowUsers = new int[m.entries.length];
+		movieRowRatings = new double[m.entries.length];
+		for (int i = 0; i < m.entries.length; i++) {
+			movieRowUsers[i] = users[m.entries[i]];
+			movieRowRatings[i] = ratings[m.entries[i]];
+		}
+
+		// Build the user-major index
+		Csr u = buildCsr(userRow, userIds.length, movieRow, n);
+		userRowStart = u.rowStart;
+		userRowMovies = new int[u.entries.length];
+		userRowRatings = new double[u.entries.length];
+		for (int i = 0; i < u.entries.length; i++) {
+			userRowMovies[i] = movies[u.entries[i]];
+			userRowRatings[i] = ratings[u.entries[i]];
+		}
+	}
+
+	/**
+	 * @return the number of distinct (user, movie) ratings
+	 */
+	public int getNumRatings() {
+		return movieRowUsers.length;
+	}
+
+	/**
+	 * @return the distinct movie ids in ascending order
+	 */
+	public int[] getMovieIds() {
+		return movieIds;
+	}
+
+	/**
+	 * @return the row offsets of the movie-major index; the ratings of the
+	 * i-th movie are at positions [getMovieRowStart()[i], getMovieRowStart()[i + 1])
+	 */
+	public int[] getMovieRowStart() {
+		return movieRowStart;
+	}
+
+	/**
+	 * @return the user ids of the movie-major index
+	 */
+	public int[] getMovieRowUsers() {
+		return movieRowUsers;
+	}
+
+	/**
+	 * @return the ratings of the movie-major index
+	 */
+	public double[] getMovieRowRatings() {
+		return movieRowRatings;
+	}
+
+	/**
+	 * @return the distinct user ids in ascending order
+	 */
+	public int[] getUserIds() {
+		return userIds;
+	}
+
+	/**
+	 * @return the row offsets of the user-major index; the ratings of the
+	 * i-th user are at positions [getUserRowStart()[i], getUserRowStart()[i + 1])
+	 */
+	public int[] getUserRowStart() {
+		return userRowStart;
+	}
+
+	/**
+	 * @return the movie ids of the user-major index
+	 */
+	public int[] getUserRowMovies() {
+		return userRowMovies;
+	}
+
+	/**
+	 * @return the ratings of the user-major index
+	 */
+	public double[] getUserRowRatings() {
+		return userRowRatings;
+	}
+
+	/**
+	 * @return a Matrix object whose rows are movie ids and whose columns are user ids
+	 */
+	public Matrix getMovieRatings() {
+		return toMatrix(movieIds, movieRowStart, movieRowUsers, movieRowRatings);
+	}
+
+	/**
+	 * @return a Matrix object whose rows are user ids and whose columns are movie ids
+	 */
+	public Matrix getUserRatings() {
+		return toMatrix(userIds, userRowStart, userRowMovies, userRowRatings);
+	}
+
+	private static Matrix toMatrix(int[] rowIds, int[] rowStart, int[] cols, double[] values) {
+		Matrix matrix = new Matrix();
+		for (int i = 0; i < rowIds.length; i++)
+			for (int j = rowStart[i]; j < rowStart[i + 1]; j++)
+				matrix.addValue(rowIds[i], cols[j], values[j]);
+		return matrix;
+	}
+
+	/**
+	 * @return the distinct values in the first n elements of ids, in ascending order
+	 */
+	private static int[] distinct(int[] ids, int n) {
+		int[] sorted = Arrays.copyOf(ids, n);
+		Arrays.sort(sorted);
+
+		int m = 0;
+		for (int i = 0; i < n; i++)
+			if (m == 0 || sorted[i] != sorted[m - 1])
+				sorted[m++] = sorted[i];
+		return Arrays.copyOf(sorted, m);
+	}
+
+	/**
+	 * @return the position of each of the first n elements of ids in the sorted array keys
+	 */
+	private static int[] toIndices(int[] ids, int n, int[] keys) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++)
+			indices[i] = Arrays.binarySearch(keys, ids[i]);
+		return indices;
+	}
+
+	/**
+	 * The row offsets and entry positions of a CSR index.
+	 */
+	private static class Csr {
+		int[] rowStart; // the row offsets
+		int[] entries; // the position of each entry in the input arrays
+	}
+
+	/**
+	 * Groups the input entries by row and sorts each row by column, keeping
+	 * the last occurrence of any duplicate (row, column) pair.
+	 * @param row - the row index of each entry
+	 * @param numRows - the number of rows
+	 * @param col - the column index of each entry
+	 * @param n - the number of entries
+	 * @return the CSR index
+	 */
+	private static Csr buildCsr(int[] row, int numRows, int[] col, int n) {
+		// Counting sort of the entries by row (stable, so file order is kept within a row)
+		int[] start = new int[numRows + 1];
+		for (int i = 0; i < n; i++)
+			start[row[i] + 1]++;
+		for (int r = 0; r < numRows; r++)
+			start[r + 1] += start[r];
+
+		long[] keys = new long[n];
+		int[] next = Arrays.copyOf(start, numRows);
+		for (int i = 0; i < n; i++)
+			keys[next[row[i]]++] = ((long)col[i] << 32) | i;
+
+		// Sort each row by column and then by position, and drop all but the last duplicate
+		int[] rowStart = new int[numRows + 1];
+		int[] entries = new int[n];
+		int m = 0;
+		for (int r = 0; r < numRows; r++) {
+			rowStart[r] = m;
+			Arrays.sort(keys, start[r], start[r + 1]);
+			for (int j = start[r]; j < start[r + 1]; j++) {
+				boolean last = j + 1 == start[r + 1] || (keys[j + 1] >>> 32) != (keys[j] >>> 32);
+				if (last)
+					entries[m++] = (int)keys[j];
+			}
+		}
+		rowStart[numRows] = m;
+
+		Csr csr = new Csr();
+		csr.rowStart = rowStart;
+		csr.entries = Arrays.copyOf(entries, m);
+		return csr;
+	}
+}
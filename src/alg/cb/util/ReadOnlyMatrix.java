@@ -0,0 +1,50 @@
+/**
+ * An interface to read the elements of a sparse matrix. Elements which are
+ * not present in the matrix have the value 0.
+ *
+ * Matrix is the mutable implementation; CsrMatrix and LazySimilarityMatrix
+ * hold similarities which cannot be changed once calculated.
+ */
+
+package alg.cb.util;
+
+import java.util.Set;
+
+public interface ReadOnlyMatrix {
+	/**
+	 * @param row - the row id
+	 * @param col - the column id
+	 * @return the value corresponding to (row, col) or 0 if the element is not present in the matrix
+	 */
+	public abstract double getValue(int row, int col);
+
+	/**
+	 * @return the ids of the non-empty rows
+	 */
+	public abstract Set<Integer> getRowIds();
+
+	/**
+	 * @param row - the row id
+	 * @return the number of elements in the specified row
+	 */
+	public abstract int getRowSize(int row);
+
+	/**
+	 * performs the specified action for each element in the specified row
+	 * @param row - the row id
+	 * @param action - the action, which receives the column id and value of each element
+	 */
+	public abstract void forEachInRow(int row, IntDoubleConsumer action);
+
+	/**
+	 * @param row - the row id
+	 * @return the mean of the values in the specified row or 0 if the row is empty
+	 */
+	public default double getRowMean(int row) {
+		double[] sum = new double[1];
+		forEachInRow(row, (col, value) -> sum[0] += value);
+
+		int size = getRowSize(row);
+		return (size > 0) ? sum[0] / size : 0;
+	}
+}
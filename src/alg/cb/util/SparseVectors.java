@@ -0,0 +1,159 @@
+/**
+ * Operations on sparse vectors stored as a sorted array of ids and a 
+ * parallel array of values (e.g. the ratings of a movie, see 
+ * Movie.getRatingUserIds and Movie.getRatingValues).
+ * 
+ * The intersection of two vectors is found by merge join. If one vector is 
+ * much shorter than the other, the longer vector is searched by galloping 
+ * (exponential search) instead, so the cost depends mainly on the length of 
+ * the shorter vector.
+ */
+
+package alg.cb.util;
+
+import java.util.Arrays;
+
+public class SparseVectors {
+	private static final int GALLOP_RATIO = 16; // gallop if one vector is this many times longer than the other
+	
+	/**
+	 * constructor is private to prevent instantiation of the class
+	 */
+	private SparseVectors() {}
+
+	/**
+	 * @param ids1 - the sorted ids of the first vector
+	 * @param values1 - the values of the first vector
+	 * @param ids2 - the sorted ids of the second vector
+	 * @param values2 - the values of the second vector
+	 * @return the dot product of the two vectors
+	 */
+	public static double dot(int[] ids1, float[] values1, int[] ids2, float[] values2) {
+		if (ids1.length > ids2.length)
+			return dot(ids2, values2, ids1, values1);
+		
+		double product = 0;
+		
+		if ((long)ids1.length * GALLOP_RATIO < ids2.length) {
+			int j = 0;
+			for (int i = 0; i < ids1.length && j < ids2.length; i++) {
+				j = gallop(ids2, j, ids1[i]);
+				if (j < ids2.length && ids2[j] == ids1[i])
+					product += values1[i] * (double)values2[j];
+			}
+		} else {
+			int i = 0, j = 0;
+			while (i < ids1.length && j < ids2.length) {
+				if (ids1[i] < ids2[j])
+					i++;
+				else if (ids1[i] > ids2[j])
+					j++;
+				else {
+					product += values1[i] * (double)values2[j];
+					i++;
+					j++;
+				}
+			}
+		}
+		
+		return product;
+	}
+
+	/**
+	 * @param ids1 - the sorted ids of the first vector
+	 * @param values1 - the values of the first vector
+	 * @param ids2 - the sorted ids of the second vector
+	 * @param values2 - the values of the second vector
+	 * @param threshold - the threshold
+	 * @return the number of ids present in both vectors for which both values are >= threshold
+	 */
+	public static int countCommonAtLeast(int[] ids1, float[] values1, int[] ids2, float[] values2, double threshold) {
+		if (ids1.length > ids2.length)
+			return countCommonAtLeast(ids2, values2, ids1, values1, threshold);
+		
+		int count = 0;
+		
+		if ((long)ids1.length * GALLOP_RATIO < ids2.length) {
+			int j = 0;
+			for (int i = 0; i < ids1.length && j < ids2.length; i++) {
+				if (values1[i] < threshold)
+					continue;
+				j = gallop(ids2, j, ids1[i]);
+				if (j < ids2.length && ids2[j] == ids1[i] && values2[j] >= threshold)
+					count++;
+			}
+		} else {
+			int i = 0, j = 0;
+			while (i < ids1.length && j < ids2.length) {
+				if (ids1[i] < ids2[j])
+					i++;
+				else if (ids1[i] > ids2[j])
+					j++;
+				else {
+					if (values1[i] >= threshold && values2[j] >= threshold)
+						count++;
+					i++;
+					j++;
+				}
+			}
+		}
+		
+		return count;
+	}
+
+	/**
+	 * finds the order in which a range of unsorted ids must be visited to 
+	 * visit them in ascending order (e.g. to build a sorted vector)
+	 * @param ids - the ids (distinct and not negative)
+	 * @param from - the index of the first id
+	 * @param to - the index after the last id
+	 * @return the indexes in ids of the ids in ascending order (to - from elements)
+	 */
+	public static int[] getSortedOrder(int[] ids, int from, int to) {
+		// Sort the ids together with their offsets, packed as longs
+		long[] keys = new long[to - from];
+		for (int i = from; i < to; i++)
+			keys[i - from] = ((long)ids[i] << 32) | (i - from);
+		Arrays.sort(keys);
+		
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			order[i] = from + (int)keys[i];
+		return order;
+	}
+	
+	/**
+	 * @param ids - a sorted array
+	 * @param from - the position from which to search
+	 * @param key - the id to search for
+	 * @return the position of the first element in ids[from..] which is >= key, 
+	 * or ids.length if there is no such element
+	 */
+	private static int gallop(int[] ids, int from, int key) {
+		if (from >= ids.length || ids[from] >= key)
+			return from;
+		
+		// Find a range (lo, hi] containing the position by doubling the step
+		int lo = from;
+		int step = 1;
+		int hi = from + step;
+		while (hi < ids.length && ids[hi] < key) {
+			lo = hi;
+			step <<= 1;
+			hi = from + step;
+		}
+		if (hi > ids.length)
+			hi = ids.length;
+		
+		// Binary search in (lo, hi]
+		lo++;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (ids[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
@@ -65,14 +65,14 @@ public class Stats {
 
 
 	/** 
-	 * @param m1 - a Matrix object
-	 * @param m2 - a Matrix object
+	 * @param m1 - a ReadOnlyMatrix object
+	 * @param m2 - a ReadOnlyMatrix object
 	 * @param rowIds - the set of row ids
 	 * @param colIds - the set of col ids
 	 * @param flag - if true, exclude matrix elements where row id = col id
 	 * @return the correlation coefficient between the values in m1 and m2
 	 */
-	public static double getCorrelation(Matrix m1, Matrix m2, Set<Integer> rowIds, Set<Integer> colIds, boolean flag) {
+	public static double getCorrelation(ReadOnlyMatrix m1, ReadOnlyMatrix m2, Set<Integer> rowIds, Set<Integer> colIds, boolean flag) {
 		// Declare variables
 		int n = 0;
 		double sum_x = 0, sum_y = 0, sum_xy = 0; 
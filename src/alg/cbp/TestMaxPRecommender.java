@@ -0,0 +1,102 @@
+/**
+ * A class to check that the top-k recommendations of MaxPRecommender,
+ * which use the threshold algorithm when the similarities are held in a
+ * CsrMatrix, match the exhaustive ranking of all candidates. The checks
+ * run on a synthetic casebase (see TestSimilarityMatrixBuilder).
+ */
+
+package alg.cbp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import alg.cb.TestSimilarityMatrixBuilder;
+import alg.cb.casebase.Casebase;
+import alg.cb.casebase.Movie;
+import alg.cb.similarity.GenomeCosineSimilarity;
+import alg.cb.similarity.GenreJaccardSimilarity;
+import alg.cb.similarity.SimilarityMatrixBuilder;
+import alg.cb.similarity.SimilarityMetric;
+import alg.cb.util.CsrMatrix;
+import alg.cbp.recommender.MaxPRecommender;
+
+public class TestMaxPRecommender {
+	private static final int[] MAX_NEIGHBOURS = {0, 10}; // the maximum numbers of neighbours in the similarity matrix (0 keeps all)
+	private static final int NUM_PROFILES = 200; // the number of random profiles to check
+
+	public static void main(String[] args) {
+		Casebase cb = TestSimilarityMatrixBuilder.createCasebase(150, 300, 60, 42);
+		Movie[] movies = cb.getMovieArray();
+		int[] ks = {0, 1, 2, 5, 10, 50, movies.length - 1, movies.length};
+		boolean ok = true;
+
+		// The genre Jaccard has many tied similarities; the genome cosine has few
+		SimilarityMetric[] metrics = {new GenreJaccardSimilarity(), new GenomeCosineSimilarity()};
+		for (SimilarityMetric metric: metrics)
+			for (int maxNeighbours: MAX_NEIGHBOURS) {
+				SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(metric);
+				builder.setMaxNeighbours(maxNeighbours);
+				CsrMatrix similarities = builder.build(cb);
+				MaxPRecommender recommender = new MaxPRecommender(cb, similarities);
+
+				// Random profiles, then profiles made of movies whose rows are empty (alone and with another movie)
+				List<Set<Movie>> profiles = getRandomProfiles(movies, NUM_PROFILES, 7);
+				Set<Movie> empty = new HashSet<>();
+				for (Movie m: movies)
+					if (similarities.getRowSize(m.getOrdinal()) == 0)
+						empty.add(m);
+				if (!empty.isEmpty()) {
+					profiles.add(empty);
+					Set<Movie> mixed = new HashSet<>(empty);
+					mixed.add(movies[0]);
+					profiles.add(mixed);
+				}
+
+				String error = null;
+				for (Set<Movie> profile: profiles) {
+					// The exhaustive ranking of all candidates
+					List<Movie> all = recommender.getRecommendations(profile);
+
+					for (int k: ks) {
+						List<Movie> expected = all.subList(0, Math.min(k, all.size()));
+						List<Movie> actual = recommender.getRecommendations(profile, k);
+						if (error == null && !expected.equals(actual))
+							error = "profile " + getIds(profile) + ", k = " + k + ": expected " + getIds(expected) + " but found " + getIds(actual);
+					}
+				}
+
+				String label = metric.getClass().getSimpleName() + " (K = " + maxNeighbours + ", " + empty.size() + " empty rows)";
+				System.out.println(label + ": " + ((error == null) ? "ok" : "FAILED - " + error));
+				ok &= (error == null);
+			}
+
+		System.out.println(ok ? "\nAll checks passed" : "\nSome checks FAILED");
+		if (!ok)
+			System.exit(1);
+	}
+
+	// Returns random profiles of between 1 and 5 movies
+	public static List<Set<Movie>> getRandomProfiles(Movie[] movies, int numProfiles, long seed) {
+		Random random = new Random(seed);
+		List<Set<Movie>> profiles = new ArrayList<>();
+		for (int p = 0; p < numProfiles; p++) {
+			Set<Movie> profile = new HashSet<>();
+			int size = 1 + random.nextInt(5);
+			while (profile.size() < size)
+				profile.add(movies[random.nextInt(movies.length)]);
+			profiles.add(profile);
+		}
+		return profiles;
+	}
+
+	// Returns the ids of a collection of movies
+	public static List<Integer> getIds(Iterable<Movie> movies) {
+		List<Integer> ids = new ArrayList<>();
+		for (Movie m: movies)
+			ids.add(m.getId());
+		return ids;
+	}
+}
@@ -2,21 +2,27 @@
  * A class to define a personalised recommender.
  * Each recommendation candidate is ranked by the maximum of its similarity 
  * to the target movies.
+ * 
+ * If the similarities are held in a CsrMatrix (rows sorted by descending 
+ * similarity), top-k requests use the threshold algorithm: the target rows 
+ * are merged in descending order of similarity, so the first time a 
+ * candidate is seen its similarity is its score, and the merge stops as 
+ * soon as no unseen candidate can rank among the k best.
  */
 
 package alg.cbp.recommender;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import alg.cb.casebase.Casebase;
 import alg.cb.casebase.Movie;
+import alg.cb.similarity.SimilarityMatrixBuilder;
 import alg.cb.similarity.SimilarityMetric;
-import alg.cb.util.ScoredObjectDsc;
+import alg.cb.util.CsrMatrix;
+import alg.cb.util.ReadOnlyMatrix;
+import alg.cb.util.NeighbourHeap;
 
 public class MaxPRecommender extends PRecommender {
 	/**
@@ -29,56 +35,141 @@ public class MaxPRecommender extends PRecommender {
 	}
 
 	/**
-	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
-	 * @return the ranked list of recommended movies - each recommendation candidate is ranked by the 
-	 * maximum of its similarity to the target movies
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities
+	 */
+	public MaxPRecommender(Casebase cb, SimilarityMetric metric, int parallelism) {
+		super(cb, metric, parallelism);
+	}
+
+	/**
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param builder - the builder used to calculate the pairwise similarities between all movies
 	 */
-	public List<Movie> getRecommendations(Set<Movie> targetMovies) {
-		// Store all similarities in descending order in a sorted set
-		SortedSet<ScoredObjectDsc> ss = new TreeSet<>(); 
+	public MaxPRecommender(Casebase cb, SimilarityMatrixBuilder builder) {
+		super(cb, builder);
+	}
 
-		// Get all movies - each movie is a possible recommendation candidate
-		Object[] movies = getCasebase().getMovies().values().toArray();
+	/**
+	 * constructor - creates a new object which uses precomputed similarities
+	 * @param cb - the casebase
+	 * @param similarities - the similarities between movies, keyed by movie ordinal
+	 */
+	public MaxPRecommender(Casebase cb, ReadOnlyMatrix similarities) {
+		super(cb, similarities);
+	}
 
-		// Get the similarity between the target movies and each candidate movie
-		for (int i = 0; i < movies.length; i++) {
-			Movie candidate = (Movie)movies[i];
+	/**
+	 * returns the k highest scoring movies for the target movies; movies with 
+	 * equal scores are ranked by ascending movie id. The result is the same 
+	 * as ranking all candidates.
+	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
+	 * @param k - the maximum number of recommendations
+	 * @return the ranked list of recommended movies
+	 */
+	@Override
+	public List<Movie> getRecommendations(Set<Movie> targetMovies, int k) {
+		Movie[] movies = getCasebase().getMovieArray();
+		if (!(getSimilarities() instanceof CsrMatrix) || k < 1 || k >= movies.length)
+			return super.getRecommendations(targetMovies, k);
 
-			// Exclude the current candidate movie if it is the same as one of the target movies
-			if (!targetMovies.contains(candidate)) {
-				double sim = calculateMaxSimilarity(targetMovies, candidate);
+		CsrMatrix similarities = (CsrMatrix)getSimilarities();
 
-				// If sim is greater than zero, add the current candidate to the set
-				if (sim > 0)
-					ss.add(new ScoredObjectDsc(sim, candidate)); 
+		// A cursor into the row of each target, kept in a heap with the 
+		// cursor pointing at the highest similarity at the root
+		int[] pos = new int[targetMovies.size()];
+		int[] end = new int[targetMovies.size()];
+		int size = 0;
+		for (Movie target: targetMovies) {
+			int row = target.getOrdinal();
+			if (similarities.getRowStart(row) < similarities.getRowEnd(row)) {
+				pos[size] = similarities.getRowStart(row);
+				end[size] = similarities.getRowEnd(row);
+				siftUp(similarities, pos, end, size++);
 			}
 		}
 
-		// Sort the candidate movies by score (in descending order) and return as recommendations 
-		List<Movie> recs = new ArrayList<>();
+		boolean[] seen = new boolean[movies.length];
+		NeighbourHeap heap = new NeighbourHeap(k);
+		while (size > 0) {
+			// The threshold - no unseen candidate can score more than this
+			double sim = similarities.getValueAt(pos[0]);
+			if (sim <= 0 || (heap.size() == k && heap.getMinValue() > sim))
+				break;
 
-		for (Iterator<ScoredObjectDsc> it = ss.iterator(); it.hasNext(); ) {
-			ScoredObjectDsc st = it.next();
-			recs.add((Movie)st.getObject());
+			// The first similarity seen for a candidate is its maximum
+			int i = similarities.getColAt(pos[0]);
+			if (!seen[i]) {
+				seen[i] = true;
+
+				// Exclude the current candidate movie if it is the same as one of the target movies
+				if (!targetMovies.contains(movies[i]))
+					heap.offer(movies[i].getId(), sim);
+			}
+
+			// Advance the cursor, removing it from the heap at the end of its row
+			if (++pos[0] == end[0]) {
+				size--;
+				pos[0] = pos[size];
+				end[0] = end[size];
+			}
+			siftDown(similarities, pos, end, 0, size);
 		}
 
+		// Return the candidate movies ranked by score (in descending order)
+		List<Movie> recs = new ArrayList<>();
+		for (int id: heap.getColsInRankOrder())
+			recs.add(getCasebase().getMovie(id));
 		return recs;
 	}
-	
+
 	/**
-	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
-	 * @param candidate - the candidate movie 
-	 * @return the maximum similarity between the target movies and the candidate
+	 * @param score - the maximum similarity so far
+	 * @param sim - the similarity between a target movie and the candidate
+	 * @return the new maximum
 	 */
-	private double calculateMaxSimilarity(Set<Movie> targetMovies, Movie candidate) {
-		double max = 0;
-		
-		for (Movie target: targetMovies) {
-			double sim = getSimilarity(target, candidate);
-			if (sim > max)
-				max = sim;
+	@Override
+	protected double accumulate(double score, double sim) {
+		return (sim > score) ? sim : score;
+	}
+
+	/**
+	 * moves a cursor up the heap of cursors (highest similarity at the root)
+	 */
+	private static void siftUp(CsrMatrix similarities, int[] pos, int[] end, int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (similarities.getValueAt(pos[parent]) >= similarities.getValueAt(pos[i]))
+				break;
+			swap(pos, end, i, parent);
+			i = parent;
 		}
-		
-		return max;
+	}
+
+	/**
+	 * moves a cursor down the heap of cursors (highest similarity at the root)
+	 */
+	private static void siftDown(CsrMatrix similarities, int[] pos, int[] end, int i, int size) {
+		while (true) {
+			int best = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && similarities.getValueAt(pos[left]) > similarities.getValueAt(pos[best]))
+				best = left;
+			if (right < size && similarities.getValueAt(pos[right]) > similarities.getValueAt(pos[best]))
+				best = right;
+			if (best == i)
+				return;
+			swap(pos, end, i, best);
+			i = best;
+		}
+	}
+
+	private static void swap(int[] pos, int[] end, int i, int j) {
+		int tp = pos[i]; pos[i] = pos[j]; pos[j] = tp;
+		int te = end[i]; end[i] = end[j]; end[j] = te;
 	}
 }
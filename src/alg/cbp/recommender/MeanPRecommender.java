@@ -2,80 +2,128 @@
  * A class to define a personalised recommender.
  * Each recommendation candidate is ranked by the mean of its similarity 
  * to the target movies.
+ * 
+ * If the recommender is created from a linear metric (see 
+ * LinearSimilarityMetric), e.g. the genome cosine, candidates are scored 
+ * against the target movies' profile vector with one dot product each, and 
+ * the pairwise similarities between all movies are not calculated in 
+ * advance (getSimilarity calculates rows on demand). A recommender created 
+ * from a builder or from precomputed similarities always scores candidates 
+ * from the similarities.
  */
 
 package alg.cbp.recommender;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import alg.cb.casebase.Casebase;
 import alg.cb.casebase.Movie;
+import alg.cb.similarity.LinearSimilarityMetric;
+import alg.cb.similarity.SimilarityMatrixBuilder;
 import alg.cb.similarity.SimilarityMetric;
-import alg.cb.util.ScoredObjectDsc;
+import alg.cb.util.ReadOnlyMatrix;
 
 public class MeanPRecommender extends PRecommender {
+	private static final int MAX_CACHED_ROWS = 1024; // the number of similarity rows cached for getSimilarity if the matrix is not built
+
+	private LinearSimilarityMetric linear; // the metric used to score candidates against the profile, or null to use the similarities
+
 	/**
-	 * constructor - creates a new object
+	 * constructor - creates a new object; the similarities are calculated in 
+	 * parallel using all available processors (unless the metric is linear, 
+	 * in which case they are not calculated in advance)
 	 * @param cb - the casebase
 	 * @param metric - the similarity metric
 	 */
 	public MeanPRecommender(Casebase cb, SimilarityMetric metric) {
-		super(cb, metric);
+		this(cb, metric, Runtime.getRuntime().availableProcessors());
 	}
 
 	/**
-	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
-	 * @return the ranked list of recommended movies - each recommendation candidate is ranked by the 
-	 * mean of its similarity to the target movies
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities; 
+	 * not used if the metric is linear, as the similarities are then not calculated in advance
 	 */
-	public List<Movie> getRecommendations(Set<Movie> targetMovies) {
-		// Store all similarities in descending order in a sorted set
-		SortedSet<ScoredObjectDsc> ss = new TreeSet<>(); 
-
-		// Get all movies - each movie is a possible recommendation candidate
-		Object[] movies = getCasebase().getMovies().values().toArray();
-
-		// Get the similarity between the target movies and each candidate movie
-		for (int i = 0; i < movies.length; i++) {
-			Movie candidate = (Movie)movies[i];
+	public MeanPRecommender(Casebase cb, SimilarityMetric metric, int parallelism) {
+		super(cb, createSimilarities(cb, metric, parallelism));
+		if (metric instanceof LinearSimilarityMetric)
+			linear = (LinearSimilarityMetric)metric;
+	}
 
-			// Exclude the current candidate movie if it is the same as one of the target movies
-			if (!targetMovies.contains(candidate)) {
-				double sim = calculateMeanSimilarity(targetMovies, candidate);
+	/**
+	 * constructor - creates a new object; candidates are scored from the 
+	 * similarities built by the builder, even if the metric is linear
+	 * @param cb - the casebase
+	 * @param builder - the builder used to calculate the pairwise similarities between all movies
+	 */
+	public MeanPRecommender(Casebase cb, SimilarityMatrixBuilder builder) {
+		super(cb, builder);
+	}
 
-				// If sim is greater than zero, add the current candidate to the set
-				if (sim > 0)
-					ss.add(new ScoredObjectDsc(sim, candidate)); 
-			}
-		}
+	/**
+	 * constructor - creates a new object which uses precomputed similarities
+	 * @param cb - the casebase
+	 * @param similarities - the similarities between movies, keyed by movie ordinal
+	 */
+	public MeanPRecommender(Casebase cb, ReadOnlyMatrix similarities) {
+		super(cb, similarities);
+	}
 
-		// Sort the candidate movies by score (in descending order) and return as recommendations 
-		List<Movie> recs = new ArrayList<>();
+	/**
+	 * calculates the score of every movie; with a linear metric the scores 
+	 * are calculated from the target movies' profile (the same as the mean 
+	 * of the pairwise similarities up to rounding)
+	 * @param targetMovies - the target movies
+	 * @return the score of each movie, indexed by ordinal
+	 */
+	@Override
+	protected double[] calculateScores(Set<Movie> targetMovies) {
+		if (linear == null || targetMovies.isEmpty())
+			return super.calculateScores(targetMovies);
 
-		for (Iterator<ScoredObjectDsc> it = ss.iterator(); it.hasNext(); ) {
-			ScoredObjectDsc st = it.next();
-			recs.add((Movie)st.getObject());
-		}
+		Movie[] movies = getCasebase().getMovieArray();
+		double[] scores = new double[movies.length];
+		linear.calculateProfileSimilarities(targetMovies, movies, scores);
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = finish(scores[i], targetMovies.size());
+		return scores;
+	}
 
-		return recs;
+	/**
+	 * @param score - the sum of the similarities so far
+	 * @param sim - the similarity between a target movie and the candidate
+	 * @return the new sum
+	 */
+	@Override
+	protected double accumulate(double score, double sim) {
+		return score + sim;
 	}
-	
+
 	/**
-	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
-	 * @param candidate - the candidate movie
+	 * @param score - the sum of the similarities to the target movies
+	 * @param numTargets - the number of target movies
 	 * @return the mean similarity between the target movies and the candidate
 	 */
-	private double calculateMeanSimilarity(Set<Movie> targetMovies, Movie candidate) {
-		double sum = 0;
-		
-		for (Movie target: targetMovies)
-			sum += getSimilarity(target, candidate);
-		
-		return (targetMovies.size() > 0) ? sum / targetMovies.size() : 0;
+	@Override
+	protected double finish(double score, int numTargets) {
+		return (numTargets > 0) ? score / numTargets : 0;
+	}
+
+	/**
+	 * @param cb - the casebase
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities (if the metric is not linear)
+	 * @return the pairwise similarities between all movies, calculated on 
+	 * demand if the metric is linear
+	 */
+	private static ReadOnlyMatrix createSimilarities(Casebase cb, SimilarityMetric metric, int parallelism) {
+		SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(metric);
+		if (metric instanceof LinearSimilarityMetric)
+			return builder.buildLazy(cb, MAX_CACHED_ROWS);
+
+		builder.setParallelism(parallelism);
+		return builder.build(cb);
 	}
 }
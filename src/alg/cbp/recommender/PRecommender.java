@@ -1,60 +1,67 @@
 /**
  * An abstract class to define a personalised recommender.
+ * 
+ * Recommendations are scored by walking the similarity row of each target 
+ * movie once and accumulating the similarities into a dense array of scores 
+ * indexed by movie ordinal; subclasses define how similarities are combined.
  */
 
 package alg.cbp.recommender;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
 import alg.cb.casebase.Casebase;
 import alg.cb.casebase.Movie;
-import alg.cb.similarity.ConfidenceSimilarity;
-import alg.cb.similarity.PopularitySimilarity;
-import alg.cb.similarity.SentimentSimilarity;
+import alg.cb.similarity.SimilarityMatrixBuilder;
 import alg.cb.similarity.SimilarityMetric;
-import alg.cb.util.Matrix;
+import alg.cb.util.ReadOnlyMatrix;
+import alg.cb.util.NeighbourHeap;
 
 public abstract class PRecommender {
 	private Casebase cb; // the casebase
-	private Matrix similarities; // a Matrix object to store the pairwise similarities between all movies
+	private ReadOnlyMatrix similarities; // the matrix which stores the pairwise similarities between all movies (keyed by movie ordinal)
 
 	/**
-	 * constructor - creates a new object
+	 * constructor - creates a new object; the similarities are calculated in 
+	 * parallel using all available processors
 	 * @param cb - the casebase
 	 * @param metric - the similarity metric
 	 */
 	protected PRecommender(Casebase cb, SimilarityMetric metric) {
+		this(cb, metric, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities 
+	 * (1 calculates them on the calling thread); the result is the same for any value
+	 */
+	protected PRecommender(Casebase cb, SimilarityMetric metric, int parallelism) {
+		this(cb, createBuilder(metric, parallelism));
+	}
+
+	/**
+	 * constructor - creates a new object
+	 * @param cb - the casebase
+	 * @param builder - the builder used to calculate the pairwise similarities between all movies
+	 */
+	protected PRecommender(Casebase cb, SimilarityMatrixBuilder builder) {
+		this(cb, builder.build(cb));
+	}
+
+	/**
+	 * constructor - creates a new object which uses precomputed similarities 
+	 * (e.g. the approximate neighbours found by an index in alg.cb.index)
+	 * @param cb - the casebase
+	 * @param similarities - the similarities between movies, keyed by movie ordinal
+	 */
+	protected PRecommender(Casebase cb, ReadOnlyMatrix similarities) {
 		this.cb = cb;
-		
-		// Calculate the pairwise similarities between all movies
-		similarities = new Matrix();
-
-		// Get all movies
-		Object[] movies = cb.getMovies().values().toArray();
-
-		// Calculate the pairwise similarities between all movies
-		for (int i = 0; i < movies.length; i++)
-			for (int j = i + 1; j < movies.length; j++) {
-				Movie m1 = (Movie)movies[i];
-				Movie m2 = (Movie)movies[j];
-
-				if (metric instanceof ConfidenceSimilarity || 
-						metric instanceof PopularitySimilarity ||
-						metric instanceof SentimentSimilarity) { // similarity is not symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if(sim > 0) similarities.addValue(m1.getId(), m2.getId(), sim);
-
-					sim = metric.calculateSimilarity(m2, m1);
-					if (sim > 0) similarities.addValue(m2.getId(), m1.getId(), sim);
-				} else { // similarity is symmetric
-					double sim = metric.calculateSimilarity(m1, m2);
-					if(sim > 0) {
-						similarities.addValue(m1.getId(), m2.getId(), sim);
-						similarities.addValue(m2.getId(), m1.getId(), sim);		
-					} 
-				}
-			}
+		this.similarities = similarities;
 	}
 
 	/**
@@ -65,18 +72,105 @@ public abstract class PRecommender {
 	}
 	
 	/**
-	 * returns the similarity between two movies
+	 * @return the similarities between movies, keyed by movie ordinal
+	 */
+	protected ReadOnlyMatrix getSimilarities() {
+		return similarities;
+	}
+	
+	/**
+	 * returns the similarity between two movies in the casebase
 	 * @param m1 - the first movie
 	 * @param m2 - the second movie
 	 * @return the similarity
 	 */
 	public double getSimilarity(Movie m1, Movie m2) {
-		return similarities.getValue(m1.getId(), m2.getId());
+		return similarities.getValue(m1.getOrdinal(), m2.getOrdinal());
 	}
 	
 	/**
 	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
 	 * @return the ranked list of recommended movies
 	 */
-	public abstract List<Movie> getRecommendations(Set<Movie> targetMovies);
+	public List<Movie> getRecommendations(Set<Movie> targetMovies) {
+		return getRecommendations(targetMovies, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * returns the k highest scoring movies for the target movies; movies with 
+	 * equal scores are ranked by ascending movie id
+	 * @param targetMovies - the target movies (e.g. the movies which are liked in a user's profile)
+	 * @param k - the maximum number of recommendations
+	 * @return the ranked list of recommended movies
+	 */
+	public List<Movie> getRecommendations(Set<Movie> targetMovies, int k) {
+		List<Movie> recs = new ArrayList<>();
+		if (k < 1)
+			return recs;
+
+		// Get all movies - each movie is a possible recommendation candidate
+		Movie[] movies = cb.getMovieArray();
+
+		// Score every candidate movie
+		double[] scores = calculateScores(targetMovies);
+
+		// Keep the k candidates with the highest score in a bounded heap of movie ids
+		NeighbourHeap heap = new NeighbourHeap(Math.min(k, movies.length));
+		for (int i = 0; i < movies.length; i++) {
+			// Exclude the current candidate movie if it is the same as one of the target movies
+			if (scores[i] > 0 && !targetMovies.contains(movies[i]))
+				heap.offer(movies[i].getId(), scores[i]);
+		}
+
+		// Return the candidate movies ranked by score (in descending order)
+		for (int id: heap.getColsInRankOrder())
+			recs.add(cb.getMovie(id));
+		return recs;
+	}
+
+	/**
+	 * calculates the score of every movie by accumulating the similarities 
+	 * in each target's row (targets in set order, so each score is combined 
+	 * in the same order as a per-candidate loop)
+	 * @param targetMovies - the target movies
+	 * @return the score of each movie, indexed by ordinal
+	 */
+	protected double[] calculateScores(Set<Movie> targetMovies) {
+		double[] scores = new double[cb.getMovieArray().length];
+		for (Movie target: targetMovies)
+			similarities.forEachInRow(target.getOrdinal(), (i, sim) -> scores[i] = accumulate(scores[i], sim));
+
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = finish(scores[i], targetMovies.size());
+		return scores;
+	}
+
+	/**
+	 * combines the score accumulated so far for a candidate movie with its 
+	 * similarity to one more target movie
+	 * @param score - the score accumulated so far (0 before the first target)
+	 * @param sim - the similarity between the target movie and the candidate
+	 * @return the new score
+	 */
+	protected abstract double accumulate(double score, double sim);
+
+	/**
+	 * @param score - the score accumulated over all target movies
+	 * @param numTargets - the number of target movies
+	 * @return the final score of the candidate movie
+	 */
+	protected double finish(double score, int numTargets) {
+		return score;
+	}
+	
+	/**
+	 * @param metric - the similarity metric
+	 * @param parallelism - the number of threads used to calculate the similarities
+	 * @return a builder for the specified metric and parallelism
+	 */
+	private static SimilarityMatrixBuilder createBuilder(SimilarityMetric metric, int parallelism) {
+		SimilarityMatrixBuilder builder = new SimilarityMatrixBuilder(metric);
+		builder.setParallelism(parallelism);
+		return builder;
+	}
 }